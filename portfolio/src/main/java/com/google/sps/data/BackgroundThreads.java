@@ -0,0 +1,59 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.ThreadManager;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the long-lived worker threads of the app. App Engine only lets threads it created itself
+ * call its APIs, since the API environment is bound per thread, so every thread that may touch
+ * Datastore or another service comes from {@link ThreadManager#backgroundThreadFactory()}.
+ *
+ * <p>Background threads need an instance with basic or manual scaling, which appengine-web.xml
+ * asks for. A thread is created on the thread that first needs it, which must itself be a request
+ * or background thread.
+ */
+public final class BackgroundThreads {
+
+  private BackgroundThreads() {}
+
+  /** Returns a factory for background threads named {@code namePrefix-1}, {@code -2} and so on. */
+  public static ThreadFactory factory(String namePrefix) {
+    AtomicInteger threadCount = new AtomicInteger();
+    return runnable -> {
+      Thread thread = ThreadManager.createBackgroundThread(runnable);
+      thread.setName(namePrefix + "-" + threadCount.incrementAndGet());
+      return thread;
+    };
+  }
+
+  /** Starts a single background thread named {@code name} running {@code runnable}. */
+  public static Thread start(String name, Runnable runnable) {
+    Thread thread = ThreadManager.createBackgroundThread(runnable);
+    thread.setName(name);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Returns a pool of {@code threads} background threads named {@code namePrefix-1} and so on, with
+   * room for {@code maxQueued} waiting tasks; once that is full, further tasks are rejected. Every
+   * thread is started right away, so tasks can be submitted from any thread, including ones that
+   * could not create a background thread themselves.
+   */
+  public static ThreadPoolExecutor pool(String namePrefix, int threads, int maxQueued) {
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(maxQueued),
+            factory(namePrefix));
+    pool.prestartAllCoreThreads();
+    return pool;
+  }
+}
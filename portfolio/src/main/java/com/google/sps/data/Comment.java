@@ -1,10 +1,62 @@
 package com.google.sps.data;
 
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+
 public final class Comment {
 
   public static final String ENTITY_NAME_PARAM = "comment";
   public static final String TEXT_PARAM = "text";
   public static final String TIME_PARAM = "timestampMillis";
+  // Detected language of the text, or UNDETECTED_LANG. Indexed, so that feed projections read it.
+  public static final String SOURCE_LANG_PARAM = "sourceLang";
+  // BCP 47 code for an undetermined language, stored until a comment's language is detected.
+  // Projections skip entities that lack a projected property, so every comment needs one.
+  public static final String UNDETECTED_LANG = "und";
+
+  /** Returns the entity property that holds the comment's materialized translation. */
+  public static String translatedTextParam(String languageCode) {
+    return TEXT_PARAM + "_" + languageCode;
+  }
+
+  /**
+   * Sets a derived property, such as a translation, that is never queried. It is stored unindexed
+   * as {@link Text}, which has no length limit.
+   */
+  public static void setDerivedProperty(Entity entity, String property, String value) {
+    entity.setUnindexedProperty(property, new Text(value));
+  }
+
+  /**
+   * Returns a property set with {@link #setDerivedProperty}, or null if it is missing. Comments
+   * written before derived properties were stored as {@link Text} hold a plain string instead.
+   */
+  public static String getDerivedProperty(Entity entity, String property) {
+    Object value = entity.getProperty(property);
+    return value instanceof Text ? ((Text) value).getValue() : (String) value;
+  }
+
+  /**
+   * Sets the detected language of a comment, or {@link #UNDETECTED_LANG} if {@code languageCode} is
+   * null. Unlike derived properties, it is stored indexed.
+   */
+  public static void setSourceLanguage(Entity entity, String languageCode) {
+    entity.setProperty(SOURCE_LANG_PARAM, languageCode == null ? UNDETECTED_LANG : languageCode);
+  }
+
+  /**
+   * Returns the detected language of a comment, or null if it has not been detected. Comments
+   * detected before the language was indexed hold it as {@link Text}.
+   */
+  public static String getSourceLanguage(Entity entity) {
+    String languageCode = getDerivedProperty(entity, SOURCE_LANG_PARAM);
+    return UNDETECTED_LANG.equals(languageCode) ? null : languageCode;
+  }
+
+  /** Returns whether feed projections can read the comment, i.e. its language is indexed. */
+  public static boolean hasIndexedSourceLanguage(Entity entity) {
+    return entity.getProperty(SOURCE_LANG_PARAM) instanceof String;
+  }
 
   private final String text;
   private final long timestampMillis;
@@ -0,0 +1,205 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sharded count of stored comments, in total and per UTC day.
+ *
+ * <p>Each update picks one shard at random and changes its total entity and its entity for every
+ * day involved in one cross-group transaction, so concurrent writers rarely contend. A transaction
+ * may span at most 25 entity groups, so an update touching more than {@code
+ * MAX_DAYS_PER_TRANSACTION} days is committed in several transactions, each keeping the total and
+ * its days in step. Shard keys are derived from the shard number and day, so reading sums {@code
+ * shardCount} entities (per day for the daily counts) fetched by key, which is strongly consistent
+ * and costs the same however many comments there are.
+ */
+public final class CommentCounter {
+
+  static final String SHARD_KIND = "commentCountShard";
+  static final String DAY_SHARD_KIND = "commentDayCountShard";
+  static final String COUNT_PARAM = "count";
+  static final String DAY_PARAM = "day";
+
+  private static final int MAX_TRANSACTION_ATTEMPTS = 5;
+  // Cross-group transactions span at most 25 entity groups, one of which is the total shard.
+  private static final int MAX_DAYS_PER_TRANSACTION = 24;
+  // The most keys Datastore accepts in one batch get.
+  private static final int MAX_KEYS_PER_GET = 1000;
+
+  private final int shardCount;
+
+  public CommentCounter(int shardCount) {
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("shardCount must be positive");
+    }
+    this.shardCount = shardCount;
+  }
+
+  /** Returns the UTC day, as yyyy-MM-dd, that contains {@code timestampMillis}. */
+  public static String dayOf(long timestampMillis) {
+    return Instant.ofEpochMilli(timestampMillis).atZone(ZoneOffset.UTC).toLocalDate().toString();
+  }
+
+  /**
+   * Counts freshly stored comment entities.
+   *
+   * @throws ConcurrentModificationException if every attempt collided with another writer
+   */
+  public void increment(List<Entity> comments) {
+    add(comments, 1);
+  }
+
+  /**
+   * Stops counting deleted comments. The entities only need their {@code timestampMillis}, so a
+   * projection of it is enough.
+   *
+   * @throws ConcurrentModificationException if every attempt collided with another writer
+   */
+  public void decrement(List<Entity> comments) {
+    add(comments, -1);
+  }
+
+  /**
+   * Adds {@code sign} for every comment to one shard of the total and of each day involved, in one
+   * transaction per {@code MAX_DAYS_PER_TRANSACTION} days. If a transaction fails, the ones before
+   * it stay committed and the rest are not attempted.
+   */
+  private void add(List<Entity> comments, long sign) {
+    SortedMap<String, Long> countsByDay = new TreeMap<>();
+    for (Entity comment : comments) {
+      countsByDay.merge(dayOf((long) comment.getProperty(Comment.TIME_PARAM)), sign, Long::sum);
+    }
+
+    SortedMap<String, Long> chunk = new TreeMap<>();
+    for (Map.Entry<String, Long> dayCount : countsByDay.entrySet()) {
+      chunk.put(dayCount.getKey(), dayCount.getValue());
+      if (chunk.size() == MAX_DAYS_PER_TRANSACTION) {
+        addToDays(chunk);
+        chunk = new TreeMap<>();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      addToDays(chunk);
+    }
+  }
+
+  /**
+   * Adds every day's count, and their sum to the total, on one random shard in one transaction.
+   * Retries on another shard if a concurrent writer got there first.
+   */
+  private void addToDays(SortedMap<String, Long> countsByDay) {
+    long totalDelta = 0;
+    for (long count : countsByDay.values()) {
+      totalDelta += count;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (int attempt = 1; ; attempt++) {
+      // A new shard for each attempt, since the last one was just shown to be busy.
+      int shard = ThreadLocalRandom.current().nextInt(shardCount);
+      List<Key> keys = new ArrayList<>();
+      keys.add(KeyFactory.createKey(SHARD_KIND, "shard-" + shard));
+      for (String day : countsByDay.keySet()) {
+        keys.add(KeyFactory.createKey(DAY_SHARD_KIND, day + "-shard-" + shard));
+      }
+
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Map<Key, Entity> existing = datastore.get(transaction, keys);
+        List<Entity> updated = new ArrayList<>(keys.size());
+        updated.add(addTo(existing, keys.get(0), null, totalDelta));
+        int index = 1;
+        for (Map.Entry<String, Long> dayCount : countsByDay.entrySet()) {
+          updated.add(addTo(existing, keys.get(index++), dayCount.getKey(), dayCount.getValue()));
+        }
+        datastore.put(transaction, updated);
+        transaction.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /** Returns the number of stored comments. */
+  public long getTotal() {
+    List<Key> keys = new ArrayList<>(shardCount);
+    for (int shard = 0; shard < shardCount; shard++) {
+      keys.add(KeyFactory.createKey(SHARD_KIND, "shard-" + shard));
+    }
+
+    long total = 0;
+    for (Entity shard : getAll(keys)) {
+      total += (long) shard.getProperty(COUNT_PARAM);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of comments per UTC day, from {@code fromDay} (yyyy-MM-dd) through today.
+   * Days on which nothing was ever counted are left out.
+   */
+  public SortedMap<String, Long> getDailyCounts(String fromDay) {
+    LocalDate today = LocalDate.now(ZoneOffset.UTC);
+    List<Key> keys = new ArrayList<>();
+    for (LocalDate day = LocalDate.parse(fromDay); !day.isAfter(today); day = day.plusDays(1)) {
+      for (int shard = 0; shard < shardCount; shard++) {
+        keys.add(KeyFactory.createKey(DAY_SHARD_KIND, day + "-shard-" + shard));
+      }
+    }
+
+    SortedMap<String, Long> countsByDay = new TreeMap<>();
+    for (Entity shard : getAll(keys)) {
+      countsByDay.merge(
+          (String) shard.getProperty(DAY_PARAM), (long) shard.getProperty(COUNT_PARAM), Long::sum);
+    }
+    return countsByDay;
+  }
+
+  /** Returns the shards that exist among {@code keys}, fetched in as few batch gets as allowed. */
+  private static List<Entity> getAll(List<Key> keys) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    List<Entity> shards = new ArrayList<>();
+    for (int start = 0; start < keys.size(); start += MAX_KEYS_PER_GET) {
+      List<Key> chunk = keys.subList(start, Math.min(start + MAX_KEYS_PER_GET, keys.size()));
+      shards.addAll(datastore.get(chunk).values());
+    }
+    return shards;
+  }
+
+  /** Returns the shard at {@code key}, created if missing, with {@code delta} added. */
+  private static Entity addTo(Map<Key, Entity> existing, Key key, String day, long delta) {
+    Entity shard = existing.get(key);
+    if (shard == null) {
+      shard = new Entity(key);
+      shard.setProperty(COUNT_PARAM, 0L);
+      if (day != null) {
+        shard.setProperty(DAY_PARAM, day);
+      }
+    }
+    shard.setProperty(COUNT_PARAM, (long) shard.getProperty(COUNT_PARAM) + delta);
+    return shard;
+  }
+}
@@ -0,0 +1,277 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceConfig;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind buffer for new comment entities. Requests enqueue and return right away; a
+ * background thread stores the queued entities with one batch {@code put} per flush. A flush
+ * happens once {@code batchSize} entities are waiting or the oldest has waited {@code
+ * maxDelayMillis}, whichever comes first.
+ *
+ * <p>The queue is bounded: {@link #offer} returns false when it is full, so callers can push back
+ * on clients. After each successful flush the stored entities are passed to the listener; a batch
+ * that could not be stored is passed to the drop listener instead. Listeners run on a thread of
+ * their own, so slow listener work never holds up the next put.
+ *
+ * <p>Puts have a deadline and a bounded number of attempts, so {@link #getMaxStoreDelayMillis}
+ * bounds how long after it was accepted a comment is either stored or dropped.
+ *
+ * <p>Entities must already have complete keys, e.g. from a {@link KeyAllocator}, which makes a
+ * retried put of a batch overwrite whatever an earlier, seemingly failed attempt stored.
+ */
+public final class CommentIngestQueue {
+
+  private static final Logger logger = Logger.getLogger(CommentIngestQueue.class.getName());
+
+  private static final int MAX_PUT_ATTEMPTS = 3;
+  private static final double PUT_DEADLINE_SECONDS = 2.0;
+  // Doubled after every failed attempt.
+  private static final long INITIAL_RETRY_BACKOFF_MILLIS = 100;
+  private static final DatastoreServiceConfig PUT_DATASTORE_CONFIG =
+      DatastoreServiceConfig.Builder.withDeadline(PUT_DEADLINE_SECONDS);
+
+  private final BlockingQueue<Entity> queue;
+  private final int capacity;
+  private final int batchSize;
+  private final long maxDelayMillis;
+  private final Consumer<List<Entity>> listener;
+  private final Consumer<List<Entity>> dropListener;
+  private final Thread flusher;
+  private final ExecutorService notifier =
+      Executors.newSingleThreadExecutor(BackgroundThreads.factory("comment-ingest-listener"));
+  private volatile boolean running = true;
+  // Queued by shutdown() behind every accepted entity; the flusher stops once it takes it.
+  private final Entity shutdownMarker;
+
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong flushCount = new AtomicLong();
+  private final AtomicLong flushedEntityCount = new AtomicLong();
+  private final AtomicLong droppedEntityCount = new AtomicLong();
+  private volatile long lastFlushLatencyMillis = 0;
+
+  public CommentIngestQueue(
+      int capacity,
+      int batchSize,
+      long maxDelayMillis,
+      Consumer<List<Entity>> listener,
+      Consumer<List<Entity>> dropListener) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.capacity = capacity;
+    this.batchSize = batchSize;
+    this.maxDelayMillis = maxDelayMillis;
+    this.listener = listener;
+    this.dropListener = dropListener;
+    this.shutdownMarker = new Entity(CommentIngestQueue.class.getSimpleName());
+    this.flusher = BackgroundThreads.start("comment-ingest", this::run);
+  }
+
+  /**
+   * Queues an entity to be stored. Returns false, without queuing it, if the queue is full.
+   *
+   * @throws IllegalArgumentException if the entity's key is not complete
+   */
+  public boolean offer(Entity entity) {
+    if (!entity.getKey().isComplete()) {
+      throw new IllegalArgumentException("Queued entities need complete keys");
+    }
+    if (!running || !queue.offer(entity)) {
+      rejectedCount.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Stops accepting entities, then stores everything still queued and runs the listeners for it
+   * before returning. A flush that is in progress is allowed to finish. Calls after the first do
+   * nothing.
+   */
+  public synchronized void shutdown() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      queue.put(shutdownMarker);
+      flusher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    // Offers that raced with shutdown() can land behind the marker.
+    List<Entity> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    for (int start = 0; start < remaining.size(); start += batchSize) {
+      flush(remaining.subList(start, Math.min(start + batchSize, remaining.size())));
+    }
+
+    notifier.shutdown();
+    try {
+      notifier.awaitTermination(getMaxStoreDelayMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns how long after {@link #offer} accepted an entity it is at the latest stored or dropped.
+   * An entity can wait for a full queue to be flushed ahead of it, plus its own batch, and every
+   * flush takes at most {@code MAX_PUT_ATTEMPTS} puts with their deadlines and backoffs.
+   */
+  public long getMaxStoreDelayMillis() {
+    long maxFlushMillis = 0;
+    long backoffMillis = INITIAL_RETRY_BACKOFF_MILLIS;
+    for (int attempt = 1; attempt <= MAX_PUT_ATTEMPTS; attempt++) {
+      maxFlushMillis += (long) (PUT_DEADLINE_SECONDS * 1000);
+      if (attempt < MAX_PUT_ATTEMPTS) {
+        maxFlushMillis += backoffMillis;
+        backoffMillis *= 2;
+      }
+    }
+    long flushesAhead = (capacity + batchSize - 1) / batchSize;
+    return maxDelayMillis + (flushesAhead + 1) * maxFlushMillis;
+  }
+
+  public int getDepth() {
+    return queue.size();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  public long getFlushCount() {
+    return flushCount.get();
+  }
+
+  public long getFlushedEntityCount() {
+    return flushedEntityCount.get();
+  }
+
+  public long getDroppedEntityCount() {
+    return droppedEntityCount.get();
+  }
+
+  public long getLastFlushLatencyMillis() {
+    return lastFlushLatencyMillis;
+  }
+
+  private void run() {
+    boolean stopping = false;
+    while (!stopping) {
+      List<Entity> batch = new ArrayList<>(batchSize);
+      try {
+        Entity first = queue.take();
+        if (first == shutdownMarker) {
+          return;
+        }
+        batch.add(first);
+
+        // Keep collecting until the batch is full or the first entity has waited long enough.
+        long flushAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        while (batch.size() < batchSize && !stopping) {
+          long remainingNanos = flushAtNanos - System.nanoTime();
+          if (remainingNanos <= 0) {
+            break;
+          }
+          Entity next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+          queue.drainTo(batch, batchSize - batch.size());
+          stopping = removeShutdownMarker(batch);
+        }
+      } catch (InterruptedException e) {
+        // Only the runtime interrupts this thread, when the instance goes away. Store what was
+        // collected; shutdown() takes care of the rest.
+        stopping = true;
+      }
+
+      if (!batch.isEmpty()) {
+        flush(batch);
+      }
+    }
+  }
+
+  /** Removes the shutdown marker from {@code batch}, returning whether it was there. */
+  private boolean removeShutdownMarker(List<Entity> batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      // By identity, since entities are equal whenever their keys are.
+      if (batch.get(i) == shutdownMarker) {
+        batch.remove(i);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void flush(List<Entity> batch) {
+    long startNanos = System.nanoTime();
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService(PUT_DATASTORE_CONFIG);
+
+    long backoffMillis = INITIAL_RETRY_BACKOFF_MILLIS;
+    for (int attempt = 1; attempt <= MAX_PUT_ATTEMPTS; attempt++) {
+      try {
+        datastore.put(batch);
+        break;
+      } catch (RuntimeException e) {
+        // Every key is complete, so a retry cannot store a comment twice.
+        if (attempt == MAX_PUT_ATTEMPTS) {
+          logger.log(Level.SEVERE, "Dropping " + batch.size() + " comments after failed puts", e);
+          droppedEntityCount.addAndGet(batch.size());
+          notify(dropListener, batch);
+          return;
+        }
+        logger.log(Level.WARNING, "Batch put failed, retrying", e);
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (InterruptedException interrupted) {
+          // The instance is going away; retry right away rather than lose the batch.
+          Thread.currentThread().interrupt();
+        }
+        backoffMillis *= 2;
+      }
+    }
+
+    lastFlushLatencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    flushCount.incrementAndGet();
+    flushedEntityCount.addAndGet(batch.size());
+
+    notify(listener, batch);
+  }
+
+  private void notify(Consumer<List<Entity>> listener, List<Entity> batch) {
+    // The batch may be a view of a list that the caller goes on to change.
+    List<Entity> entities = new ArrayList<>(batch);
+    Runnable notification =
+        () -> {
+          try {
+            listener.accept(entities);
+          } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Comment ingest listener failed", e);
+          }
+        };
+    try {
+      notifier.execute(notification);
+    } catch (RejectedExecutionException e) {
+      // Only after shutdown() has given up waiting for the listeners.
+      notification.run();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.google.sps.data;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes a page of comments in the protocol buffers wire format, by hand and without reflection.
+ * The encoding matches these messages:
+ *
+ * <pre>
+ * message Comment {
+ *   string text = 1;
+ *   int64 timestamp_millis = 2;
+ * }
+ *
+ * message CommentPage {
+ *   repeated Comment comments = 1;
+ *   string next_cursor = 2;  // absent on the last page
+ * }
+ * </pre>
+ *
+ * <p>Every size is computed up front, so the page is written into one exactly-sized array.
+ */
+public final class CommentProtoEncoder {
+
+  public static final String CONTENT_TYPE = "application/x-protobuf";
+
+  private static final int WIRE_TYPE_VARINT = 0;
+  private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+
+  private static final int COMMENT_TEXT_FIELD = 1;
+  private static final int COMMENT_TIMESTAMP_FIELD = 2;
+  private static final int PAGE_COMMENTS_FIELD = 1;
+  private static final int PAGE_NEXT_CURSOR_FIELD = 2;
+
+  private CommentProtoEncoder() {}
+
+  /** Encodes {@code texts[i]} with {@code timestampsMillis[i]} for each comment, in order. */
+  public static byte[] encodePage(String[] texts, long[] timestampsMillis, String nextCursor) {
+    byte[][] textBytes = new byte[texts.length][];
+    int[] commentSizes = new int[texts.length];
+    int pageSize = 0;
+    for (int i = 0; i < texts.length; i++) {
+      textBytes[i] = texts[i].getBytes(StandardCharsets.UTF_8);
+      commentSizes[i] =
+          lengthDelimitedSize(COMMENT_TEXT_FIELD, textBytes[i].length)
+              + 1
+              + varintSize(timestampsMillis[i]);
+      pageSize += lengthDelimitedSize(PAGE_COMMENTS_FIELD, commentSizes[i]);
+    }
+    byte[] cursorBytes =
+        nextCursor == null ? null : nextCursor.getBytes(StandardCharsets.UTF_8);
+    if (cursorBytes != null) {
+      pageSize += lengthDelimitedSize(PAGE_NEXT_CURSOR_FIELD, cursorBytes.length);
+    }
+
+    Output out = new Output(pageSize);
+    for (int i = 0; i < texts.length; i++) {
+      out.writeTag(PAGE_COMMENTS_FIELD, WIRE_TYPE_LENGTH_DELIMITED);
+      out.writeVarint(commentSizes[i]);
+      out.writeBytesField(COMMENT_TEXT_FIELD, textBytes[i]);
+      out.writeTag(COMMENT_TIMESTAMP_FIELD, WIRE_TYPE_VARINT);
+      out.writeVarint(timestampsMillis[i]);
+    }
+    if (cursorBytes != null) {
+      out.writeBytesField(PAGE_NEXT_CURSOR_FIELD, cursorBytes);
+    }
+    return out.bytes;
+  }
+
+  /** Size of a length-delimited field with a one-byte tag, as every field here has. */
+  private static int lengthDelimitedSize(int field, int length) {
+    return 1 + varintSize(length) + length;
+  }
+
+  private static int varintSize(long value) {
+    // Negative values always take the full ten bytes.
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static final class Output {
+    private final byte[] bytes;
+    private int position = 0;
+
+    Output(int size) {
+      this.bytes = new byte[size];
+    }
+
+    void writeTag(int field, int wireType) {
+      bytes[position++] = (byte) ((field << 3) | wireType);
+    }
+
+    void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[position++] = (byte) value;
+    }
+
+    void writeBytesField(int field, byte[] value) {
+      writeTag(field, WIRE_TYPE_LENGTH_DELIMITED);
+      writeVarint(value.length);
+      System.arraycopy(value, 0, bytes, position, value.length);
+      position += value.length;
+    }
+  }
+}
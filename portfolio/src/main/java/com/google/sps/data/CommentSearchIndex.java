@@ -0,0 +1,343 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Key;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over comment texts. Each term maps to a posting list of comments sorted
+ * by {@code timestampMillis}, so the most recent matches are found by walking lists from the end
+ * and a top-k search stops as soon as it has k results.
+ *
+ * <p>Queries are whitespace-separated terms that must all match (AND). A term ending in {@code *}
+ * matches every indexed term with that prefix. Terms are lower-cased runs of letters and digits.
+ *
+ * <p>Removed comments are only marked deleted at first. Once they make up more than half of the
+ * index, it is compacted: the survivors are renumbered and the dead entries dropped.
+ */
+public final class CommentSearchIndex {
+
+  // Fewer deleted comments than this are never worth a compaction.
+  private static final int MIN_DELETED_TO_COMPACT = 1024;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // Documents are numbered in the order they were added; a number is never reused.
+  private long[] timestamps = new long[INITIAL_CAPACITY];
+  private List<Key> keys = new ArrayList<>();
+  private final Map<Key, Integer> docIdsByKey = new HashMap<>();
+  private final BitSet deleted = new BitSet();
+  private int deletedCount = 0;
+  private final TreeMap<String, PostingList> postings = new TreeMap<>();
+
+  /**
+   * Indexes a stored comment. Comments that are already indexed, or were removed, are ignored.
+   */
+  public void add(Key key, String text, long timestampMillis) {
+    Set<String> terms = tokenize(text);
+
+    lock.writeLock().lock();
+    try {
+      if (docIdsByKey.containsKey(key)) {
+        return;
+      }
+      int docId = newDoc(key, timestampMillis);
+      for (String term : terms) {
+        postings.computeIfAbsent(term, t -> new PostingList()).add(docId);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Removes a comment from search results. */
+  public void remove(Key key) {
+    lock.writeLock().lock();
+    try {
+      Integer docId = docIdsByKey.get(key);
+      if (docId == null) {
+        // Not indexed yet, e.g. because a rebuild has read it but not added it. The tombstone
+        // keeps the rebuild from adding it afterwards.
+        docId = newDoc(key, 0);
+      }
+      if (!deleted.get(docId)) {
+        deleted.set(docId);
+        deletedCount++;
+        if (deletedCount >= MIN_DELETED_TO_COMPACT && deletedCount * 2 > keys.size()) {
+          compact();
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return keys.size() - deletedCount;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Numbers a new document. Must be called with the write lock held. */
+  private int newDoc(Key key, long timestampMillis) {
+    int docId = keys.size();
+    if (docId == timestamps.length) {
+      timestamps = Arrays.copyOf(timestamps, timestamps.length * 2);
+    }
+    timestamps[docId] = timestampMillis;
+    keys.add(key);
+    docIdsByKey.put(key, docId);
+    return docId;
+  }
+
+  /**
+   * Drops deleted comments for good. Survivors are renumbered in their old order, which keeps every
+   * posting list sorted. Must be called with the write lock held.
+   */
+  private void compact() {
+    int[] newDocIds = new int[keys.size()];
+    List<Key> liveKeys = new ArrayList<>(keys.size() - deletedCount);
+    long[] liveTimestamps = new long[Math.max(INITIAL_CAPACITY, keys.size() - deletedCount)];
+    docIdsByKey.clear();
+    for (int docId = 0; docId < keys.size(); docId++) {
+      if (deleted.get(docId)) {
+        newDocIds[docId] = -1;
+        continue;
+      }
+      newDocIds[docId] = liveKeys.size();
+      liveTimestamps[liveKeys.size()] = timestamps[docId];
+      docIdsByKey.put(keys.get(docId), liveKeys.size());
+      liveKeys.add(keys.get(docId));
+    }
+
+    postings.values().removeIf(list -> list.renumber(newDocIds) == 0);
+    keys = liveKeys;
+    timestamps = liveTimestamps;
+    deleted.clear();
+    deletedCount = 0;
+  }
+
+  /** Returns the keys of the {@code limit} most recent comments that match {@code query}. */
+  public List<Key> search(String query, int limit) {
+    lock.readLock().lock();
+    try {
+      List<List<PostingList>> groups = parseQuery(query);
+      if (groups == null) {
+        return Collections.emptyList();
+      }
+
+      // Drive the search from the group with the fewest postings; check the rest by lookup.
+      List<PostingList> driver = groups.get(0);
+      for (List<PostingList> group : groups) {
+        if (totalSize(group) < totalSize(driver)) {
+          driver = group;
+        }
+      }
+
+      List<Key> results = new ArrayList<>();
+      NewestFirst candidates = new NewestFirst(driver);
+      while (results.size() < limit && candidates.hasNext()) {
+        int docId = candidates.next();
+        if (!deleted.get(docId) && matchesAll(groups, driver, docId)) {
+          results.add(keys.get(docId));
+        }
+      }
+      return results;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Resolves each query term to the posting lists it matches. Returns null if the query is empty
+   * or some term matches nothing, since then no comment can match.
+   */
+  private List<List<PostingList>> parseQuery(String query) {
+    List<List<PostingList>> groups = new ArrayList<>();
+    for (String piece : query.trim().split("\\s+")) {
+      boolean isPrefix = piece.endsWith("*");
+      for (String term : tokenize(isPrefix ? piece.substring(0, piece.length() - 1) : piece)) {
+        List<PostingList> group = new ArrayList<>();
+        if (isPrefix) {
+          // Every expansion takes part, so results are ranked as if each term had been listed.
+          group.addAll(postings.subMap(term, term + Character.MAX_VALUE).values());
+        } else {
+          PostingList list = postings.get(term);
+          if (list != null) {
+            group.add(list);
+          }
+        }
+        if (group.isEmpty()) {
+          return null;
+        }
+        groups.add(group);
+      }
+    }
+    return groups.isEmpty() ? null : groups;
+  }
+
+  private boolean matchesAll(List<List<PostingList>> groups, List<PostingList> driver, int docId) {
+    for (List<PostingList> group : groups) {
+      if (group == driver) {
+        continue;
+      }
+      boolean matched = false;
+      for (PostingList list : group) {
+        if (list.contains(docId)) {
+          matched = true;
+          break;
+        }
+      }
+      if (!matched) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long totalSize(List<PostingList> group) {
+    long size = 0;
+    for (PostingList list : group) {
+      size += list.size;
+    }
+    return size;
+  }
+
+  /** Orders documents by timestamp, then by number. */
+  private int compareDocs(int a, int b) {
+    int byTime = Long.compare(timestamps[a], timestamps[b]);
+    return byTime != 0 ? byTime : Integer.compare(a, b);
+  }
+
+  private static Set<String> tokenize(String text) {
+    Set<String> terms = new LinkedHashSet<>();
+    String lowerCase = text.toLowerCase(Locale.ROOT);
+    int start = -1;
+    for (int i = 0; i <= lowerCase.length(); i++) {
+      boolean inTerm = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+      if (inTerm && start < 0) {
+        start = i;
+      } else if (!inTerm && start >= 0) {
+        terms.add(lowerCase.substring(start, i));
+        start = -1;
+      }
+    }
+    return terms;
+  }
+
+  /** Document numbers sorted oldest first, by {@link #compareDocs}. */
+  private final class PostingList {
+    private int[] docs = new int[4];
+    private int size = 0;
+
+    void add(int docId) {
+      if (size == docs.length) {
+        docs = Arrays.copyOf(docs, size * 2);
+      }
+      // Comments almost always arrive newest last, so this is usually a plain append.
+      int index = size;
+      while (index > 0 && compareDocs(docs[index - 1], docId) > 0) {
+        index--;
+      }
+      System.arraycopy(docs, index, docs, index + 1, size - index);
+      docs[index] = docId;
+      size++;
+    }
+
+    /**
+     * Maps every document to {@code newDocIds[docId]}, dropping those mapped to -1, and returns the
+     * new size. The mapping must preserve order.
+     */
+    int renumber(int[] newDocIds) {
+      int newSize = 0;
+      for (int i = 0; i < size; i++) {
+        int newDocId = newDocIds[docs[i]];
+        if (newDocId >= 0) {
+          docs[newSize++] = newDocId;
+        }
+      }
+      size = newSize;
+      return size;
+    }
+
+    boolean contains(int docId) {
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int comparison = compareDocs(docs[mid], docId);
+        if (comparison < 0) {
+          low = mid + 1;
+        } else if (comparison > 0) {
+          high = mid - 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** Walks the union of some posting lists from the newest document down, without duplicates. */
+  private final class NewestFirst {
+    // Each entry is {list index, position}, ordered so the newest document comes out first.
+    private final PriorityQueue<int[]> heads;
+    private final List<PostingList> lists;
+    private int lastDocId = -1;
+
+    NewestFirst(List<PostingList> lists) {
+      this.lists = lists;
+      this.heads =
+          new PriorityQueue<>(
+              Math.max(1, lists.size()),
+              (a, b) -> compareDocs(docAt(b), docAt(a)));
+      for (int i = 0; i < lists.size(); i++) {
+        if (lists.get(i).size > 0) {
+          heads.add(new int[] {i, lists.get(i).size - 1});
+        }
+      }
+    }
+
+    boolean hasNext() {
+      while (!heads.isEmpty() && docAt(heads.peek()) == lastDocId) {
+        advance();
+      }
+      return !heads.isEmpty();
+    }
+
+    int next() {
+      hasNext();
+      lastDocId = docAt(heads.peek());
+      advance();
+      return lastDocId;
+    }
+
+    private void advance() {
+      int[] head = heads.poll();
+      if (head[1] > 0) {
+        head[1]--;
+        heads.add(head);
+      }
+    }
+
+    private int docAt(int[] head) {
+      return lists.get(head[0]).docs[head[1]];
+    }
+  }
+}
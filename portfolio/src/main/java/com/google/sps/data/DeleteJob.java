@@ -0,0 +1,135 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a background bulk delete of comments, serialized to JSON for polling clients.
+ *
+ * <p>The job is stored in Datastore under its id whenever it changes, so any instance can report
+ * on it, not just the one running it.
+ */
+public final class DeleteJob {
+
+  public enum State {
+    RUNNING,
+    DONE,
+    FAILED
+  }
+
+  static final String ENTITY_NAME_PARAM = "deleteJob";
+  static final String STARTED_AT_PARAM = "startedAtMillis";
+  static final String DELETED_COUNT_PARAM = "deletedCount";
+  static final String UNCOUNTED_COUNT_PARAM = "uncountedCount";
+  static final String STATE_PARAM = "state";
+  static final String ERROR_PARAM = "error";
+
+  private final String jobId;
+  private final long startedAtMillis;
+  private final AtomicLong deletedCount;
+  // Deleted comments that the comment counter could not be updated for, so it still counts them.
+  private final AtomicLong uncountedCount;
+  private volatile State state;
+  private volatile String error;
+
+  public DeleteJob() {
+    this(UUID.randomUUID().toString(), System.currentTimeMillis(), 0, 0, State.RUNNING, null);
+  }
+
+  private DeleteJob(
+      String jobId,
+      long startedAtMillis,
+      long deletedCount,
+      long uncountedCount,
+      State state,
+      String error) {
+    this.jobId = jobId;
+    this.startedAtMillis = startedAtMillis;
+    this.deletedCount = new AtomicLong(deletedCount);
+    this.uncountedCount = new AtomicLong(uncountedCount);
+    this.state = state;
+    this.error = error;
+  }
+
+  /** Returns the stored job with {@code jobId}, or null if there is none. */
+  public static DeleteJob load(String jobId) {
+    Entity entity;
+    try {
+      entity = DatastoreServiceFactory.getDatastoreService().get(keyOf(jobId));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+    return new DeleteJob(
+        jobId,
+        (long) entity.getProperty(STARTED_AT_PARAM),
+        (long) entity.getProperty(DELETED_COUNT_PARAM),
+        // Jobs stored before uncounted comments were recorded have no count.
+        entity.hasProperty(UNCOUNTED_COUNT_PARAM)
+            ? (long) entity.getProperty(UNCOUNTED_COUNT_PARAM)
+            : 0,
+        State.valueOf((String) entity.getProperty(STATE_PARAM)),
+        (String) entity.getProperty(ERROR_PARAM));
+  }
+
+  public String getJobId() {
+    return jobId;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public long getDeletedCount() {
+    return deletedCount.get();
+  }
+
+  /** Adds to the number of deleted comments and stores the new count. */
+  public void addDeleted(int count) {
+    deletedCount.addAndGet(count);
+    save();
+  }
+
+  public long getUncountedCount() {
+    return uncountedCount.get();
+  }
+
+  /** Records deleted comments that are still counted, and stores the new count. */
+  public void addUncounted(int count) {
+    uncountedCount.addAndGet(count);
+    save();
+  }
+
+  public void markDone() {
+    state = State.DONE;
+    save();
+  }
+
+  public void markFailed(String error) {
+    this.error = error;
+    state = State.FAILED;
+    save();
+  }
+
+  /**
+   * Stores the job as it is now. Saves are serialized, so a save never overwrites a later count
+   * with an earlier one.
+   */
+  public synchronized void save() {
+    Entity entity = new Entity(keyOf(jobId));
+    entity.setUnindexedProperty(STARTED_AT_PARAM, startedAtMillis);
+    entity.setUnindexedProperty(DELETED_COUNT_PARAM, deletedCount.get());
+    entity.setUnindexedProperty(UNCOUNTED_COUNT_PARAM, uncountedCount.get());
+    entity.setUnindexedProperty(STATE_PARAM, state.name());
+    entity.setUnindexedProperty(ERROR_PARAM, error);
+    DatastoreServiceFactory.getDatastoreService().put(entity);
+  }
+
+  private static Key keyOf(String jobId) {
+    return KeyFactory.createKey(ENTITY_NAME_PARAM, jobId);
+  }
+}
@@ -0,0 +1,84 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Puts comment entities into feed order (newest first, ties broken by key, descending) and skips
+ * those that do not sort after a {@link PageCursor}.
+ *
+ * <p>The source only has to be sorted by {@code timestampMillis}, descending. Entities that share a
+ * timestamp are buffered and sorted by key, so the order does not depend on how Datastore orders
+ * ties, which differs between indexes (projection indexes, for example, order ties by the projected
+ * properties first).
+ */
+public final class FeedIterator implements Iterator<Entity> {
+
+  private static final Comparator<Entity> BY_KEY_DESCENDING =
+      (a, b) -> b.getKey().compareTo(a.getKey());
+
+  private final Iterator<Entity> source;
+  private final PageCursor cursor;
+  private final Deque<Entity> ready = new ArrayDeque<>();
+  // First entity of the next timestamp group, read while looking for the end of the current one.
+  private Entity lookahead;
+
+  /** @param cursor position to start after, or null to start at the newest comment */
+  public FeedIterator(Iterator<Entity> source, PageCursor cursor) {
+    this.source = source;
+    this.cursor = cursor;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (ready.isEmpty() && (lookahead != null || source.hasNext())) {
+      fillNextGroup();
+    }
+    return !ready.isEmpty();
+  }
+
+  @Override
+  public Entity next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return ready.removeFirst();
+  }
+
+  private void fillNextGroup() {
+    Entity first = lookahead != null ? lookahead : source.next();
+    lookahead = null;
+    long timestampMillis = timestampOf(first);
+
+    List<Entity> group = new ArrayList<>();
+    group.add(first);
+    while (source.hasNext()) {
+      Entity entity = source.next();
+      if (timestampOf(entity) != timestampMillis) {
+        lookahead = entity;
+        break;
+      }
+      group.add(entity);
+    }
+
+    if (group.size() > 1) {
+      Collections.sort(group, BY_KEY_DESCENDING);
+    }
+    for (Entity entity : group) {
+      if (cursor == null || cursor.isBefore(entity)) {
+        ready.addLast(entity);
+      }
+    }
+  }
+
+  private static long timestampOf(Entity entity) {
+    return (long) entity.getProperty(Comment.TIME_PARAM);
+  }
+}
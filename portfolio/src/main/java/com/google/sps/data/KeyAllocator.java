@@ -0,0 +1,37 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Key;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * Hands out complete keys of one kind from id ranges reserved with {@code allocateIds}, so that a
+ * new entity has its final key before it is first stored. Storing it again, e.g. after a put that
+ * timed out but did commit, then overwrites the same entity instead of creating a duplicate.
+ *
+ * <p>Ids are reserved {@code blockSize} at a time, so most calls need no Datastore round trip.
+ */
+public final class KeyAllocator {
+
+  private final String kind;
+  private final long blockSize;
+  private Iterator<Key> reserved = Collections.emptyIterator();
+
+  public KeyAllocator(String kind, long blockSize) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("blockSize must be positive");
+    }
+    this.kind = kind;
+    this.blockSize = blockSize;
+  }
+
+  /** Returns a key that no other caller has been or will be given. */
+  public synchronized Key next() {
+    if (!reserved.hasNext()) {
+      reserved =
+          DatastoreServiceFactory.getDatastoreService().allocateIds(kind, blockSize).iterator();
+    }
+    return reserved.next();
+  }
+}
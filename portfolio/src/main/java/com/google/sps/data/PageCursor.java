@@ -0,0 +1,79 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Keyset position in the comment feed, which is ordered by {@code timestampMillis} and then by key,
+ * both descending. A cursor names the last comment of a page; the next page holds the comments that
+ * sort strictly after it. Clients only see the opaque web-safe string form.
+ */
+public final class PageCursor {
+
+  private static final char SEPARATOR = ':';
+
+  private final long timestampMillis;
+  private final Key key;
+
+  public PageCursor(long timestampMillis, Key key) {
+    this.timestampMillis = timestampMillis;
+    this.key = key;
+  }
+
+  /** Returns the cursor positioned at {@code entity}, a stored comment entity. */
+  public static PageCursor fromEntity(Entity entity) {
+    return new PageCursor((long) entity.getProperty(Comment.TIME_PARAM), entity.getKey());
+  }
+
+  /**
+   * Parses a string produced by {@link #toWebSafeString}.
+   *
+   * @throws IllegalArgumentException if the string is not a valid cursor
+   */
+  public static PageCursor fromWebSafeString(String cursor) {
+    String decoded;
+    try {
+      decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+    }
+
+    int separatorIndex = decoded.indexOf(SEPARATOR);
+    if (separatorIndex < 0) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor);
+    }
+    try {
+      long timestampMillis = Long.parseLong(decoded.substring(0, separatorIndex));
+      Key key = KeyFactory.stringToKey(decoded.substring(separatorIndex + 1));
+      return new PageCursor(timestampMillis, key);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+    }
+  }
+
+  public String toWebSafeString() {
+    String raw = Long.toString(timestampMillis) + SEPARATOR + KeyFactory.keyToString(key);
+    byte[] bytes = raw.getBytes(StandardCharsets.UTF_8);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  public Key getKey() {
+    return key;
+  }
+
+  /** Returns whether {@code entity} sorts strictly after this cursor in the comment feed. */
+  public boolean isBefore(Entity entity) {
+    long entityTimestampMillis = (long) entity.getProperty(Comment.TIME_PARAM);
+    if (entityTimestampMillis != timestampMillis) {
+      return entityTimestampMillis < timestampMillis;
+    }
+    return entity.getKey().compareTo(key) < 0;
+  }
+}
@@ -0,0 +1,180 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-through cache of the newest comment entities, in feed order (newest first, ties broken by
+ * key). Writes on this instance update it in place; a TTL bounds how stale it can get relative to
+ * writes made on other instances.
+ *
+ * <p>Comments accepted on this instance but not stored yet are held as pending, and merged into
+ * every load, so that whoever posted a comment sees it on their next read.
+ */
+public final class RecentComments {
+
+  private final int capacity;
+  private final long ttlMillis;
+
+  private List<Entity> entities = Collections.emptyList();
+  // Accepted comments that have not been stored yet, by key.
+  private final Map<Key, Entity> pending = new LinkedHashMap<>();
+  // Whether entities holds every stored comment, rather than just the newest capacity of them.
+  private boolean complete = false;
+  private long loadedAtMillis = 0;
+  private boolean loaded = false;
+  // Bumped on every change, so that a load racing with a write or clear is discarded.
+  private long generation = 0;
+
+  public RecentComments(int capacity, long ttlMillis) {
+    this.capacity = capacity;
+    this.ttlMillis = ttlMillis;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the newest {@code count} entities, or fewer if that is every stored comment. Returns
+   * null if the cache is empty, expired or too small to answer, in which case the caller should
+   * query Datastore and {@link #load} the result.
+   */
+  public synchronized List<Entity> getNewest(int count) {
+    if (!loaded || System.currentTimeMillis() - loadedAtMillis >= ttlMillis) {
+      return null;
+    }
+    if (entities.size() < count && !complete) {
+      return null;
+    }
+    return new ArrayList<>(entities.subList(0, Math.min(count, entities.size())));
+  }
+
+  /**
+   * Returns a version string that changes whenever the newest comments change, derived from the
+   * newest timestamp and the number of cached comments. Returns null under the same conditions as
+   * {@link #getNewest}.
+   */
+  public synchronized String getVersion() {
+    if (!loaded || System.currentTimeMillis() - loadedAtMillis >= ttlMillis) {
+      return null;
+    }
+    return getNewestTimestampMillis() + "-" + entities.size() + (complete ? "" : "+");
+  }
+
+  /** Returns the newest cached timestamp, or 0 if the cache is empty or not loaded. */
+  public synchronized long getNewestTimestampMillis() {
+    if (entities.isEmpty()) {
+      return 0;
+    }
+    return (long) entities.get(0).getProperty(Comment.TIME_PARAM);
+  }
+
+  /** Returns a token to pass to {@link #load} once the Datastore query has finished. */
+  public synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Replaces the cached entities with the newest {@code capacity} entities read from Datastore,
+   * merged with the pending ones. The result is dropped if the cache changed since {@code
+   * expectedGeneration} was read.
+   */
+  public synchronized void load(List<Entity> newestEntities, long expectedGeneration) {
+    if (generation != expectedGeneration) {
+      return;
+    }
+    List<Entity> copy = new ArrayList<>(newestEntities.size());
+    for (Entity entity : newestEntities.subList(0, Math.min(capacity, newestEntities.size()))) {
+      copy.add(entity.clone());
+    }
+    entities = copy;
+    complete = newestEntities.size() < capacity;
+    for (Entity entity : pending.values()) {
+      insert(entity);
+    }
+    loadedAtMillis = System.currentTimeMillis();
+    loaded = true;
+    generation++;
+  }
+
+  /** Inserts a comment that was accepted but is still waiting to be stored. */
+  public synchronized void addPending(Entity entity) {
+    generation++;
+    Entity copy = entity.clone();
+    pending.put(copy.getKey(), copy);
+    if (loaded) {
+      insert(copy);
+    }
+  }
+
+  /** Inserts a newly stored comment entity in feed order, replacing its pending copy if any. */
+  public synchronized void add(Entity entity) {
+    generation++;
+    pending.remove(entity.getKey());
+    if (loaded) {
+      insert(entity.clone());
+    }
+  }
+
+  /**
+   * Replaces the cached copy of a stored comment with {@code entity}, e.g. once its language has
+   * been detected. Does nothing if the comment is not cached.
+   */
+  public synchronized void update(Entity entity) {
+    for (int i = 0; i < entities.size(); i++) {
+      if (entities.get(i).getKey().equals(entity.getKey())) {
+        generation++;
+        List<Entity> updated = new ArrayList<>(entities);
+        updated.set(i, entity.clone());
+        entities = updated;
+        return;
+      }
+    }
+  }
+
+  /** Removes a comment, e.g. a pending one that could not be stored after all. */
+  public synchronized void remove(Key key) {
+    generation++;
+    pending.remove(key);
+    List<Entity> updated = new ArrayList<>(entities);
+    if (updated.removeIf(entity -> entity.getKey().equals(key))) {
+      entities = updated;
+      // The comment that would now be last may not be cached.
+      if (!complete) {
+        loaded = false;
+      }
+    }
+  }
+
+  /** Empties the cache, e.g. after comments were deleted. Pending comments are kept. */
+  public synchronized void clear() {
+    generation++;
+    entities = Collections.emptyList();
+    complete = false;
+    loaded = false;
+  }
+
+  /** Puts {@code entity} at its place in feed order, replacing an entity with the same key. */
+  private void insert(Entity entity) {
+    List<Entity> updated = new ArrayList<>(entities);
+    updated.removeIf(cached -> cached.getKey().equals(entity.getKey()));
+
+    PageCursor position = PageCursor.fromEntity(entity);
+    int index = 0;
+    while (index < updated.size() && !position.isBefore(updated.get(index))) {
+      index++;
+    }
+    updated.add(index, entity);
+    if (updated.size() > capacity) {
+      updated.remove(updated.size() - 1);
+      complete = false;
+    }
+    entities = updated;
+  }
+}
@@ -0,0 +1,158 @@
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Byte-bounded LRU cache of serialized first-page responses, keyed by (limit, language, content
+ * type).
+ *
+ * <p>Each entry holds the serialized body and its gzip encoding, plus the entity tag it was built
+ * for; a lookup only hits when the request's tag matches, so a stale entry is never served. {@link
+ * #invalidate()} drops every entry and also discards responses that were being built when it was
+ * called.
+ */
+public final class ResponseCache {
+
+  private final long maxBytes;
+
+  // Access-ordered, so iteration starts at the least recently used entry.
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long currentBytes = 0;
+  private long generation = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public ResponseCache(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns the cached response for the view if it was built for {@code etag}, or null. */
+  public Entry get(int limit, String languageCode, String contentType, String etag) {
+    String key = cacheKey(limit, languageCode, contentType);
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry == null || !entry.etag.equals(etag)) {
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      return entry;
+    }
+  }
+
+  /**
+   * Starts building the response for a view. The response is only stored by {@link Slot#fill} if
+   * the cache has not been invalidated in the meantime.
+   */
+  public synchronized Slot reserve(
+      int limit, String languageCode, String contentType, String etag) {
+    return new Slot(cacheKey(limit, languageCode, contentType), etag, generation);
+  }
+
+  /** Drops every entry, e.g. because comments were added or deleted. */
+  public synchronized void invalidate() {
+    entries.clear();
+    currentBytes = 0;
+    generation++;
+  }
+
+  public synchronized long sizeBytes() {
+    return currentBytes;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  private synchronized void store(Slot slot, Entry entry) {
+    if (slot.generation != generation || entry.sizeBytes() > maxBytes) {
+      return;
+    }
+    Entry previous = entries.put(slot.key, entry);
+    if (previous != null) {
+      currentBytes -= previous.sizeBytes();
+    }
+    currentBytes += entry.sizeBytes();
+
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (currentBytes > maxBytes && eldest.hasNext()) {
+      currentBytes -= eldest.next().getValue().sizeBytes();
+      eldest.remove();
+    }
+  }
+
+  private static String cacheKey(int limit, String languageCode, String contentType) {
+    return limit + "|" + languageCode + "|" + contentType;
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 32);
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+      out.write(bytes);
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  /** A response being built for one view. */
+  public final class Slot {
+    private final String key;
+    private final String etag;
+    private final long generation;
+
+    private Slot(String key, String etag, long generation) {
+      this.key = key;
+      this.etag = etag;
+      this.generation = generation;
+    }
+
+    /** Compresses the finished body, stores it if still current, and returns it. */
+    public Entry fill(byte[] body) {
+      Entry entry = new Entry(etag, body, gzip(body));
+      store(this, entry);
+      return entry;
+    }
+  }
+
+  /** A serialized response body in its plain and gzip encodings. */
+  public static final class Entry {
+    private final String etag;
+    private final byte[] body;
+    private final byte[] gzippedBody;
+
+    private Entry(String etag, byte[] body, byte[] gzippedBody) {
+      this.etag = etag;
+      this.body = body;
+      this.gzippedBody = gzippedBody;
+    }
+
+    public byte[] getBody() {
+      return body;
+    }
+
+    public byte[] getGzippedBody() {
+      return gzippedBody;
+    }
+
+    private long sizeBytes() {
+      return body.length + gzippedBody.length;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.google.sps.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size, log-linear histogram of latencies in nanoseconds.
+ *
+ * <p>Each power of two is split into {@value #SUB_BUCKET_COUNT} linear sub-buckets, so a reported
+ * quantile is within about 6% of the true value. Recording is a few arithmetic operations and two
+ * atomic increments, with no allocation and no locking, so it is safe to call on request threads.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  // Longer latencies are recorded as this value; nothing we time should take over a minute.
+  private static final long MAX_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+  private static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_NANOS) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder sumNanos = new LongAdder();
+
+  /** Records one latency. Negative values are recorded as zero. */
+  public void record(long nanos) {
+    long value = Math.max(0, Math.min(nanos, MAX_TRACKABLE_NANOS));
+    counts.incrementAndGet(bucketIndex(value));
+    sumNanos.add(value);
+  }
+
+  /** Records the time elapsed since {@code startNanos}, a value of {@link System#nanoTime()}. */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /** Returns a consistent-enough copy of the counts for reporting. */
+  public Snapshot snapshot() {
+    long[] snapshotCounts = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshotCounts[i] = counts.get(i);
+      total += snapshotCounts[i];
+    }
+    return new Snapshot(snapshotCounts, total, sumNanos.sum());
+  }
+
+  private static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+  }
+
+  /** Returns the largest value that falls into the bucket at {@code index}. */
+  private static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  /** Point-in-time view of a histogram. */
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sumNanos;
+
+    private Snapshot(long[] counts, long count, long sumNanos) {
+      this.counts = counts;
+      this.count = count;
+      this.sumNanos = sumNanos;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getSumNanos() {
+      return sumNanos;
+    }
+
+    /** Returns the latency at {@code quantile} (between 0 and 1), or 0 if nothing was recorded. */
+    public long getValueAtQuantile(double quantile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(bucketUpperBound(i), MAX_TRACKABLE_NANOS);
+        }
+      }
+      return MAX_TRACKABLE_NANOS;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.google.sps.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Process-wide set of latency histograms, each identified by a metric name and a {@code phase}
+ * label, and written out in the Prometheus text exposition format as summaries.
+ *
+ * <p>Callers look a histogram up once and keep it in a field; recording into it afterwards does not
+ * touch the registry.
+ */
+public final class MetricsRegistry {
+
+  private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  // Sorted by name so that every metric's series are written together.
+  private static final Map<String, Metric> METRICS = new ConcurrentSkipListMap<>();
+
+  private MetricsRegistry() {}
+
+  /**
+   * Returns the histogram for {@code phase} of the metric {@code name}, creating it if needed.
+   * Latencies are reported in seconds, so {@code name} should end in {@code _seconds}.
+   */
+  public static LatencyHistogram latency(String name, String help, String phase) {
+    Metric metric = METRICS.computeIfAbsent(name, n -> new Metric(help));
+    return metric.phases.computeIfAbsent(phase, p -> new LatencyHistogram());
+  }
+
+  /** Writes every histogram as a Prometheus summary with p50, p95 and p99. */
+  public static void writePrometheus(PrintWriter out) {
+    for (Map.Entry<String, Metric> metricEntry : METRICS.entrySet()) {
+      String name = metricEntry.getKey();
+      out.println("# HELP " + name + " " + metricEntry.getValue().help);
+      out.println("# TYPE " + name + " summary");
+
+      for (Map.Entry<String, LatencyHistogram> phaseEntry :
+          metricEntry.getValue().phases.entrySet()) {
+        String phaseLabel = "phase=\"" + phaseEntry.getKey() + "\"";
+        LatencyHistogram.Snapshot snapshot = phaseEntry.getValue().snapshot();
+        for (double quantile : QUANTILES) {
+          out.println(
+              name
+                  + "{"
+                  + phaseLabel
+                  + ",quantile=\""
+                  + quantile
+                  + "\"} "
+                  + toSeconds(snapshot.getValueAtQuantile(quantile)));
+        }
+        out.println(name + "_sum{" + phaseLabel + "} " + toSeconds(snapshot.getSumNanos()));
+        out.println(name + "_count{" + phaseLabel + "} " + snapshot.getCount());
+      }
+    }
+  }
+
+  private static double toSeconds(long nanos) {
+    return nanos / NANOS_PER_SECOND;
+  }
+
+  private static final class Metric {
+    private final String help;
+    private final Map<String, LatencyHistogram> phases = new ConcurrentSkipListMap<>();
+
+    Metric(String help) {
+      this.help = help;
+    }
+  }
+}
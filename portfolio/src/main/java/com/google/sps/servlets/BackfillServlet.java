@@ -0,0 +1,60 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that starts materializing hot-language translations for existing comments. A backfill
+ * calls the Translate API for every comment, so only app admins and cron jobs may start one.
+ */
+@WebServlet("/data/backfill")
+public class BackfillServlet extends HttpServlet {
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isAuthorized(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "Only admins can start a backfill");
+      return;
+    }
+
+    try {
+      DataServlet.TRANSLATION_MATERIALIZER.scheduleBackfill();
+    } catch (RejectedExecutionException e) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Translation queue is full");
+      return;
+    }
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+  }
+
+  /**
+   * Returns whether the request comes from a signed-in admin or from cron. App Engine strips the
+   * X-Appengine-Cron header from outside requests, so it cannot be forged.
+   */
+  private boolean isAuthorized(HttpServletRequest request) {
+    if ("true".equals(request.getHeader("X-Appengine-Cron"))) {
+      return true;
+    }
+    UserService userService = UserServiceFactory.getUserService();
+    return userService.isUserLoggedIn() && userService.isUserAdmin();
+  }
+}
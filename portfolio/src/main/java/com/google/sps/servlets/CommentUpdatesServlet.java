@@ -0,0 +1,196 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.gson.*;
+import com.google.sps.data.Comment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that clients poll for comments posted since {@code since=<timestampMillis>}, oldest
+ * first, and translated with {@code lang=<code>}. The response's {@code since} is the value to send
+ * with the next poll.
+ *
+ * <p>Polls read Datastore, so they see comments written on any instance. Comments are only returned
+ * once they are settled, {@link #getSettleMillis} old: a comment is stored up to the ingest queue's
+ * maximum store delay after its timestamp is taken, and a feed query may lag the write, so a newer
+ * comment could otherwise turn up after the client had already moved past its timestamp.
+ *
+ * <p>The settled window only moves in steps of {@code POLL_STEP_MILLIS}, and each instance keeps
+ * the answers for the current step, so every tab polling from the same position shares one query.
+ * The answers are dropped whenever the recent comments cache changes, e.g. after a delete.
+ */
+@WebServlet("/data/updates")
+public class CommentUpdatesServlet extends HttpServlet {
+
+  // Allowance for a feed query to lag the write that stored a comment.
+  private static final long QUERY_LAG_MILLIS = 5 * 1000;
+  // Matches the client's poll interval.
+  private static final long POLL_STEP_MILLIS = 5 * 1000;
+  private static final int MAX_COMMENTS_PER_POLL = 100;
+  private static final int MAX_CACHED_POLLS = 64;
+
+  // Answers by poll position for the current step, most recently used last.
+  private static final Map<Long, Poll> POLLS =
+      new LinkedHashMap<Long, Poll>(16, 0.75f, /* accessOrder = */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Poll> eldest) {
+          return size() > MAX_CACHED_POLLS;
+        }
+      };
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long sinceMillis;
+    try {
+      sinceMillis = Long.parseLong(request.getParameter("since"));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing or invalid since");
+      return;
+    }
+    String languageCode = request.getParameter("lang");
+
+    long settledMillis = System.currentTimeMillis() - getSettleMillis();
+    long untilMillis = settledMillis - Math.floorMod(settledMillis, POLL_STEP_MILLIS);
+    List<Entity> entities = new ArrayList<>();
+    if (sinceMillis < untilMillis) {
+      entities = getSettledComments(sinceMillis, untilMillis);
+    }
+
+    List<String> texts = new ArrayList<>(entities.size());
+    if (languageCode != null && !entities.isEmpty()) {
+      texts = Arrays.asList(DataServlet.translateComments(entities, languageCode).join());
+    } else {
+      for (Entity entity : entities) {
+        texts.add((String) entity.getProperty(Comment.TEXT_PARAM));
+      }
+    }
+
+    List<Comment> comments = new ArrayList<>(entities.size());
+    for (int i = 0; i < entities.size(); i++) {
+      comments.add(new Comment(texts.get(i), getTimestampMillis(entities.get(i))));
+    }
+    long nextSinceMillis =
+        entities.isEmpty() ? sinceMillis : getTimestampMillis(entities.get(entities.size() - 1));
+
+    Map<String, Object> update = new LinkedHashMap<>();
+    update.put("comments", comments);
+    update.put("since", nextSinceMillis);
+
+    Gson gson = new Gson();
+    String json = gson.toJson(update);
+
+    response.setContentType("application/json;");
+    response.setHeader("Cache-Control", "no-store");
+    response.getWriter().println(json);
+  }
+
+  /**
+   * Returns how old a comment must be before polls return it: the longest the ingest queue takes to
+   * store a comment, plus the lag of the feed query.
+   */
+  static long getSettleMillis() {
+    return DataServlet.INGEST_QUEUE.getMaxStoreDelayMillis() + QUERY_LAG_MILLIS;
+  }
+
+  /**
+   * Returns the comments with sinceMillis < timestampMillis <= untilMillis, oldest first, from the
+   * answer kept for this step if the recent comments cache has not changed since it was read.
+   */
+  private List<Entity> getSettledComments(long sinceMillis, long untilMillis) {
+    long generation = DataServlet.RECENT_COMMENTS.getGeneration();
+    synchronized (POLLS) {
+      Poll poll = POLLS.get(sinceMillis);
+      if (poll != null && poll.untilMillis == untilMillis && poll.generation == generation) {
+        return poll.entities;
+      }
+    }
+
+    List<Entity> entities = queryComments(sinceMillis, untilMillis);
+
+    // A full poll may have cut off comments that share the last timestamp; leave all of them for
+    // the next poll, unless that would leave nothing.
+    if (entities.size() == MAX_COMMENTS_PER_POLL) {
+      long lastMillis = getTimestampMillis(entities.get(entities.size() - 1));
+      int end = entities.size();
+      while (end > 0 && getTimestampMillis(entities.get(end - 1)) == lastMillis) {
+        end--;
+      }
+      if (end > 0) {
+        entities = entities.subList(0, end);
+      }
+    }
+
+    List<Entity> settled = Collections.unmodifiableList(new ArrayList<>(entities));
+    synchronized (POLLS) {
+      POLLS.put(sinceMillis, new Poll(untilMillis, generation, settled));
+    }
+    return settled;
+  }
+
+  /** Returns the comments with sinceMillis < timestampMillis <= untilMillis, oldest first. */
+  private List<Entity> queryComments(long sinceMillis, long untilMillis) {
+    Query query =
+        new Query(Comment.ENTITY_NAME_PARAM)
+            .setFilter(
+                CompositeFilterOperator.and(
+                    new FilterPredicate(
+                        Comment.TIME_PARAM, FilterOperator.GREATER_THAN, sinceMillis),
+                    new FilterPredicate(
+                        Comment.TIME_PARAM, FilterOperator.LESS_THAN_OR_EQUAL, untilMillis)))
+            .addSort(Comment.TIME_PARAM, SortDirection.ASCENDING);
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    return new ArrayList<>(
+        datastore.prepare(query).asList(FetchOptions.Builder.withLimit(MAX_COMMENTS_PER_POLL)));
+  }
+
+  private static long getTimestampMillis(Entity entity) {
+    return (long) entity.getProperty(Comment.TIME_PARAM);
+  }
+
+  /** The answer to polls from one position, for one step of the settled window. */
+  private static final class Poll {
+    private final long untilMillis;
+    // The recent comments generation the answer was read at.
+    private final long generation;
+    private final List<Entity> entities;
+
+    Poll(long untilMillis, long generation, List<Entity> entities) {
+      this.untilMillis = untilMillis;
+      this.generation = generation;
+      this.entities = entities;
+    }
+  }
+}
@@ -14,60 +14,634 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.LifecycleManager;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceConfig;
-import com.google.appengine.api.datastore.DatastoreServiceConfig.Builder;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.datastore.ReadPolicy;
 import com.google.appengine.api.datastore.ReadPolicy.Consistency;
-import com.google.cloud.translate.Translate;
-import com.google.cloud.translate.TranslateOptions;
-import com.google.cloud.translate.Translation;
 import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.BackgroundThreads;
 import com.google.sps.data.Comment;
+import com.google.sps.data.CommentCounter;
+import com.google.sps.data.CommentIngestQueue;
+import com.google.sps.data.CommentProtoEncoder;
+import com.google.sps.data.FeedIterator;
+import com.google.sps.data.KeyAllocator;
+import com.google.sps.data.PageCursor;
+import com.google.sps.data.RecentComments;
+import com.google.sps.data.ResponseCache;
+import com.google.sps.metrics.LatencyHistogram;
+import com.google.sps.metrics.MetricsRegistry;
+import com.google.sps.translation.CloudTranslator;
+import com.google.sps.translation.CommentTranslator;
+import com.google.sps.translation.FakeTranslator;
+import com.google.sps.translation.TranslationCache;
+import com.google.sps.translation.TranslationMaterializer;
+import com.google.sps.translation.Translator;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /** Servlet that handles comment data. */
-@WebServlet("/data")
+@WebServlet(urlPatterns = "/data", asyncSupported = true)
 public class DataServlet extends HttpServlet {
 
+  private static final Logger logger = Logger.getLogger(DataServlet.class.getName());
+
   private static final DatastoreServiceConfig DEFAULT_DATASTORE_CONFIG =
       DatastoreServiceConfig.Builder.withReadPolicy(new ReadPolicy(Consistency.STRONG)).deadline(5.0);
   private static final int MIN_COMMENT_LIMIT = 5;
+  private static final int MAX_COMMENT_LIMIT = 100;
 
-  @Override
-  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query(Comment.ENTITY_NAME_PARAM).addSort(Comment.TIME_PARAM, SortDirection.DESCENDING);
+  // The newest comments are kept in memory so that first pages need no Datastore query. The cache
+  // holds one comment more than the largest page, which tells whether there is a next page.
+  private static final long RECENT_COMMENTS_TTL_MILLIS = 60 * 1000;
+  static final RecentComments RECENT_COMMENTS =
+      new RecentComments(MAX_COMMENT_LIMIT + 1, RECENT_COMMENTS_TTL_MILLIS);
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService(DEFAULT_DATASTORE_CONFIG);
-    PreparedQuery results = datastore.prepare(query);
+  // Translations are deterministic for a given text and language, so they are cached across
+  // requests. The cache never holds more than TRANSLATION_CACHE_MAX_BYTES.
+  private static final long TRANSLATION_CACHE_MAX_BYTES = 8L * 1024 * 1024;
+  private static final long TRANSLATION_CACHE_TTL_MILLIS = 6L * 60 * 60 * 1000;
+  static final TranslationCache TRANSLATION_CACHE =
+      new TranslationCache(TRANSLATION_CACHE_MAX_BYTES, TRANSLATION_CACHE_TTL_MILLIS);
+
+  static final Translator TRANSLATOR = createTranslator();
+
+  // Untranslated comments of a page are sent to the Translate API in batches of this size, with
+  // up to TRANSLATION_PARALLELISM batches in flight. Comments not translated within
+  // TRANSLATION_TIMEOUT_MILLIS are served in their original text.
+  private static final int TRANSLATION_CHUNK_SIZE = 10;
+  private static final int TRANSLATION_PARALLELISM = 8;
+  private static final long TRANSLATION_TIMEOUT_MILLIS = 1500;
+  static final CommentTranslator COMMENT_TRANSLATOR =
+      new CommentTranslator(
+          TRANSLATOR,
+          TRANSLATION_CACHE,
+          TRANSLATION_CHUNK_SIZE,
+          TRANSLATION_PARALLELISM,
+          TRANSLATION_TIMEOUT_MILLIS);
+
+  private static final long ASYNC_TIMEOUT_MILLIS = 10 * 1000;
+
+  // Blocking Datastore reads and response writes run on this pool, shared by every request. It is
+  // small because translations, the slow part of a request, hold none of its threads; reads that
+  // find DATA_MAX_QUEUED_TASKS others waiting are turned away with a 503.
+  private static final int DATA_THREADS = 16;
+  private static final int DATA_MAX_QUEUED_TASKS = 256;
+  private static final ThreadPoolExecutor DATA_POOL =
+      BackgroundThreads.pool("data", DATA_THREADS, DATA_MAX_QUEUED_TASKS);
+
+  // New comments are translated into these languages in the background and the translations are
+  // stored on the entity, so reads in these languages need no Translate call. Their language is
+  // detected there too, off the path that stores them.
+  private static final List<String> MATERIALIZED_LANGUAGES = Arrays.asList("es", "fr");
+  static final TranslationMaterializer TRANSLATION_MATERIALIZER =
+      new TranslationMaterializer(
+          TRANSLATOR, MATERIALIZED_LANGUAGES, DataServlet::onDerivedPropertiesStored);
+
+  // New comments are acknowledged right away and stored in batches by a background thread. When
+  // INGEST_QUEUE_CAPACITY comments are waiting, further posts are turned away with a 503.
+  private static final int INGEST_QUEUE_CAPACITY = 1000;
+  private static final int INGEST_BATCH_SIZE = 100;
+  private static final long INGEST_MAX_DELAY_MILLIS = 250;
+  static final CommentIngestQueue INGEST_QUEUE =
+      new CommentIngestQueue(
+          INGEST_QUEUE_CAPACITY,
+          INGEST_BATCH_SIZE,
+          INGEST_MAX_DELAY_MILLIS,
+          DataServlet::onCommentsStored,
+          DataServlet::onCommentsDropped);
+
+  // Keys for new comments, assigned before they are queued so that storing them is idempotent.
+  private static final long COMMENT_KEY_BLOCK_SIZE = 100;
+  private static final KeyAllocator COMMENT_KEYS =
+      new KeyAllocator(Comment.ENTITY_NAME_PARAM, COMMENT_KEY_BLOCK_SIZE);
+
+  // More shards let more flushes update the counts at once, at the cost of more reads per stat.
+  private static final int DEFAULT_COUNTER_SHARDS = 20;
+  static final CommentCounter COMMENT_COUNTER =
+      new CommentCounter(Integer.getInteger("sps.counterShards", DEFAULT_COUNTER_SHARDS));
+
+  // Translate API calls avoided because texts were already in the requested language.
+  static final AtomicLong SKIPPED_TRANSLATION_COUNT = new AtomicLong();
+
+  // Serialized first pages, which almost every visitor requests with the same limit and language.
+  private static final long RESPONSE_CACHE_MAX_BYTES = 4L * 1024 * 1024;
+  static final ResponseCache RESPONSE_CACHE = new ResponseCache(RESPONSE_CACHE_MAX_BYTES);
+
+  private static final String PHASE_METRIC = "sps_data_phase_seconds";
+  private static final String PHASE_HELP = "Latency of each phase of GET /data.";
+  private static final LatencyHistogram QUERY_LATENCY =
+      MetricsRegistry.latency(PHASE_METRIC, PHASE_HELP, "query");
+  private static final LatencyHistogram TRANSLATE_LATENCY =
+      MetricsRegistry.latency(PHASE_METRIC, PHASE_HELP, "translate");
+  private static final LatencyHistogram SERIALIZE_LATENCY =
+      MetricsRegistry.latency(PHASE_METRIC, PHASE_HELP, "serialize");
+
+  @Override
+  public void init() {
+    // Basic scaling instances are not guaranteed a destroy() call when they stop, but App Engine
+    // does run the shutdown hook, which gets about 30 seconds to store what is still queued.
+    LifecycleManager.getInstance().setShutdownHook(INGEST_QUEUE::shutdown);
+  }
 
-    List<Comment> comments = new ArrayList<>();
+  @Override
+  public void destroy() {
+    INGEST_QUEUE.shutdown();
+  }
 
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     int commentLimit = getCommentLimit(request);
     String languageCode = getLanguageCode(request);
 
-    results.asList(FetchOptions.Builder.withLimit(commentLimit)).forEach(entity -> {
-      Comment comment = commentFromEntity(entity, languageCode);
-      comments.add(comment);
-    });
+    PageCursor cursor;
+    try {
+      cursor = getCursor(request);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+
+    // Clients that ask for it get the page as a protocol buffer instead of JSON.
+    PageView view =
+        new PageView(
+            commentLimit,
+            languageCode,
+            cursor,
+            request.getParameter("cursor"),
+            acceptsProtobuf(request),
+            acceptsGzip(request));
+
+    // With a warm recent comments cache, revalidations and cached first pages are answered here,
+    // before any query or translation.
+    String version = RECENT_COMMENTS.getVersion();
+    if (version != null && answerFromCache(request, response, view, version)) {
+      return;
+    }
+
+    // The rest runs without holding this container thread. Blocking Datastore reads, including
+    // the one that warms a cold cache, run on the shared data pool; translations use non-blocking
+    // futures; and the response is written on the data pool too, never on a translation or
+    // deadline thread.
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(ASYNC_TIMEOUT_MILLIS);
+
+    CompletableFuture<Boolean> answered;
+    if (version != null) {
+      answered = CompletableFuture.completedFuture(false);
+    } else {
+      answered =
+          supplyOnDataPool(
+              () -> {
+                // Loading the cache costs one Datastore query, but no translation.
+                getRecentComments(RECENT_COMMENTS.getCapacity());
+                String loadedVersion = RECENT_COMMENTS.getVersion();
+                if (loadedVersion == null) {
+                  // A write raced with the load; serve this page without validators.
+                  return false;
+                }
+                try {
+                  return answerFromCache(request, response, view, loadedVersion);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+    }
+
+    answered
+        .thenCompose(
+            done ->
+                done
+                    ? CompletableFuture.completedFuture(null)
+                    : readPage(view).thenCompose(page -> translatePage(page, languageCode)))
+        .whenComplete(
+            (page, error) -> {
+              Runnable finish = () -> finishResponse(asyncContext, page, error, view);
+              try {
+                DATA_POOL.execute(finish);
+              } catch (RejectedExecutionException e) {
+                // The response must still be written, even on the thread that completed the page.
+                finish.run();
+              }
+            });
+  }
 
+  /**
+   * Sets the validators for {@code view} at feed {@code version} and answers the request if the
+   * client's copy is current or a serialized first page is cached. Returns whether the response is
+   * done; if not, a first page reserves its slot in the response cache.
+   */
+  private boolean answerFromCache(
+      HttpServletRequest request, HttpServletResponse response, PageView view, String version)
+      throws IOException {
+    String etag = getEntityTag(view, version);
+    long lastModifiedMillis = RECENT_COMMENTS.getNewestTimestampMillis();
+    response.setHeader("Cache-Control", "private, no-cache");
+    response.setHeader("Vary", "Accept, Accept-Encoding");
+    response.setHeader("ETag", etag);
+    if (lastModifiedMillis > 0) {
+      response.setDateHeader("Last-Modified", lastModifiedMillis);
+    }
+    if (isNotModified(request, etag, lastModifiedMillis)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+
+    // First pages are served from their serialized bytes when nothing has changed since.
+    if (view.cursor == null) {
+      ResponseCache.Entry cached =
+          RESPONSE_CACHE.get(view.commentLimit, view.languageCode, view.contentType, etag);
+      if (cached != null) {
+        setContentType(response, view);
+        writeCachedPage(response, cached, view.acceptsGzip);
+        return true;
+      }
+      view.cacheSlot =
+          RESPONSE_CACHE.reserve(view.commentLimit, view.languageCode, view.contentType, etag);
+    }
+    return false;
+  }
+
+  /**
+   * Reads the page after the view's cursor, plus one comment past it to learn whether there is a
+   * next page. First pages come from the recent comments cache when it is warm; otherwise the query
+   * runs on the data pool.
+   */
+  private CompletableFuture<FeedPage> readPage(PageView view) {
+    int commentLimit = view.commentLimit;
+    if (view.cursor == null) {
+      List<Entity> cached = RECENT_COMMENTS.getNewest(commentLimit + 1);
+      if (cached != null) {
+        return CompletableFuture.completedFuture(new FeedPage(cached, commentLimit));
+      }
+    }
+
+    return supplyOnDataPool(
+        () -> {
+          long startNanos = System.nanoTime();
+          Iterable<Entity> feed =
+              view.cursor == null
+                  ? getRecentComments(commentLimit + 1)
+                  : queryFeed(
+                      view.cursor, commentLimit + 1, needsOnlyText(view.languageCode));
+
+          List<Entity> entities = new ArrayList<>(commentLimit + 1);
+          for (Entity entity : feed) {
+            entities.add(entity);
+            if (entities.size() > commentLimit) {
+              break;
+            }
+          }
+          QUERY_LATENCY.recordSince(startNanos);
+          return new FeedPage(entities, commentLimit);
+        });
+  }
+
+  /**
+   * Runs {@code supplier} on the data pool. If the pool is saturated, the returned future fails
+   * with a {@link RejectedExecutionException}, which is answered with a 503.
+   */
+  private static <T> CompletableFuture<T> supplyOnDataPool(Supplier<T> supplier) {
+    try {
+      return CompletableFuture.supplyAsync(supplier, DATA_POOL);
+    } catch (RejectedExecutionException e) {
+      CompletableFuture<T> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(e);
+      return rejected;
+    }
+  }
+
+  /** Fills in the page's texts with {@link #translateComments}. */
+  private CompletableFuture<FeedPage> translatePage(FeedPage page, String languageCode) {
+    long startNanos = System.nanoTime();
+    return translateComments(page.entities, languageCode)
+        .thenApply(
+            texts -> {
+              System.arraycopy(texts, 0, page.texts, 0, texts.length);
+              TRANSLATE_LATENCY.recordSince(startNanos);
+              return page;
+            });
+  }
+
+  /**
+   * Returns the texts of the comment entities in {@code languageCode}. Comments already in that
+   * language are used as is, and materialized translations are read from the entity; the rest are
+   * translated on demand, and any whose translation misses the deadline keep their original text.
+   */
+  static CompletableFuture<String[]> translateComments(List<Entity> entities, String languageCode) {
+    String[] texts = new String[entities.size()];
+    List<Integer> pendingIndexes = new ArrayList<>();
+    List<String> pendingTexts = new ArrayList<>();
+    // Texts used as is that would otherwise have been sent to the backend.
+    List<String> skippedTexts = new ArrayList<>();
+    for (int i = 0; i < entities.size(); i++) {
+      Entity entity = entities.get(i);
+      String text = (String) entity.getProperty(Comment.TEXT_PARAM);
+      String materializedText = getMaterializedText(entity, languageCode);
+      if (languageCode.equals(Comment.getSourceLanguage(entity))) {
+        texts[i] = text;
+        if (materializedText == null) {
+          skippedTexts.add(text);
+        }
+      } else if (materializedText == null) {
+        pendingIndexes.add(i);
+        pendingTexts.add(text);
+      } else {
+        texts[i] = materializedText;
+      }
+    }
+
+    if (!skippedTexts.isEmpty()) {
+      List<String> unskippedTexts = new ArrayList<>(pendingTexts);
+      unskippedTexts.addAll(skippedTexts);
+      SKIPPED_TRANSLATION_COUNT.addAndGet(
+          COMMENT_TRANSLATOR.countBackendCalls(unskippedTexts, languageCode)
+              - COMMENT_TRANSLATOR.countBackendCalls(pendingTexts, languageCode));
+    }
+
+    return COMMENT_TRANSLATOR
+        .translateAsync(pendingTexts, languageCode)
+        .thenApply(
+            translatedTexts -> {
+              for (int i = 0; i < pendingIndexes.size(); i++) {
+                texts[pendingIndexes.get(i)] = translatedTexts.get(i);
+              }
+              return texts;
+            });
+  }
+
+  /**
+   * Writes the page, or an error, and completes the asynchronous request. A null page means the
+   * response was already answered from the cache. With a cache slot the page is serialized to
+   * bytes and cached before it is written.
+   */
+  private void finishResponse(
+      AsyncContext asyncContext, FeedPage page, Throwable error, PageView view) {
+    HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+    boolean protobuf = view.protobuf;
+    ResponseCache.Slot cacheSlot = view.cacheSlot;
+    try {
+      Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+      if (cause instanceof RejectedExecutionException) {
+        response.setHeader("Retry-After", "1");
+        response.sendError(
+            HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many requests, try again shortly");
+      } else if (error != null) {
+        logger.log(Level.WARNING, "Failed to read comments", error);
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      } else if (page != null) {
+        setContentType(response, view);
+        long startNanos = System.nanoTime();
+        if (cacheSlot == null && !protobuf) {
+          writePage(response.getWriter(), page);
+        } else {
+          byte[] body = protobuf ? encodeProtobufPage(page) : encodeJsonPage(page);
+          if (cacheSlot == null) {
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+          } else {
+            writeCachedPage(response, cacheSlot.fill(body), view.acceptsGzip);
+          }
+        }
+        SERIALIZE_LATENCY.recordSince(startNanos);
+      }
+    } catch (IOException | IllegalStateException e) {
+      // The client went away or the request already timed out.
+      logger.log(Level.FINE, "Could not write comments", e);
+    } finally {
+      try {
+        asyncContext.complete();
+      } catch (IllegalStateException e) {
+        // Already completed by the container after a timeout.
+      }
+    }
+  }
+
+  /**
+   * Streams the page as {"comments": [...], "nextCursor": "..."} to {@code out}, building one {@link
+   * Comment} at a time.
+   */
+  private void writePage(Writer out, FeedPage page) throws IOException {
     Gson gson = new Gson();
-    String json = gson.toJson(comments);
+    JsonWriter writer = new JsonWriter(out);
+    writer.beginObject();
+    writer.name("comments");
+    writer.beginArray();
+    for (int i = 0; i < page.entities.size(); i++) {
+      long timestampMillis = (long) page.entities.get(i).getProperty(Comment.TIME_PARAM);
+      gson.toJson(new Comment(page.texts[i], timestampMillis), Comment.class, writer);
+    }
+    writer.endArray();
+    if (page.nextCursor != null) {
+      writer.name("nextCursor").value(page.nextCursor);
+    }
+    writer.endObject();
+    writer.flush();
+  }
 
-    response.setContentType("application/json;");
-    response.getWriter().println(json);
+  private byte[] encodeJsonPage(FeedPage page) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    writePage(new OutputStreamWriter(body, StandardCharsets.UTF_8), page);
+    return body.toByteArray();
+  }
+
+  private byte[] encodeProtobufPage(FeedPage page) {
+    long[] timestampsMillis = new long[page.entities.size()];
+    for (int i = 0; i < timestampsMillis.length; i++) {
+      timestampsMillis[i] = (long) page.entities.get(i).getProperty(Comment.TIME_PARAM);
+    }
+    return CommentProtoEncoder.encodePage(page.texts, timestampsMillis, page.nextCursor);
+  }
+
+  private void setContentType(HttpServletResponse response, PageView view) {
+    if (view.protobuf) {
+      response.setContentType(view.contentType);
+    } else {
+      response.setContentType("application/json;");
+      response.setCharacterEncoding("UTF-8");
+    }
+  }
+
+  /** Writes a serialized page as is, gzipped if the client accepts it. */
+  private void writeCachedPage(
+      HttpServletResponse response, ResponseCache.Entry page, boolean acceptsGzip)
+      throws IOException {
+    byte[] body = acceptsGzip ? page.getGzippedBody() : page.getBody();
+    if (acceptsGzip) {
+      response.setHeader("Content-Encoding", "gzip");
+    }
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private boolean acceptsProtobuf(HttpServletRequest request) {
+    String accept = request.getHeader("Accept");
+    return accept != null && accept.contains(CommentProtoEncoder.CONTENT_TYPE);
+  }
+
+  private boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+  }
+
+  /**
+   * Returns the comment entities after {@code cursor} in feed order. The query starts at the
+   * cursor's timestamp, so only comments sharing that exact timestamp have to be skipped and the
+   * cost of a page stays proportional to its size however deep the cursor is.
+   *
+   * <p>With {@code projectText}, a projection query reads just the text, detected language and
+   * timestamp of each comment instead of the whole entity.
+   */
+  private Iterable<Entity> queryFeed(PageCursor cursor, int chunkSize, boolean projectText) {
+    Query query =
+        new Query(Comment.ENTITY_NAME_PARAM).addSort(Comment.TIME_PARAM, SortDirection.DESCENDING);
+    if (cursor != null) {
+      query.setFilter(
+          new FilterPredicate(
+              Comment.TIME_PARAM, FilterOperator.LESS_THAN_OR_EQUAL, cursor.getTimestampMillis()));
+    }
+    if (projectText) {
+      query.addProjection(new PropertyProjection(Comment.TEXT_PARAM, String.class));
+      query.addProjection(new PropertyProjection(Comment.SOURCE_LANG_PARAM, String.class));
+      query.addProjection(new PropertyProjection(Comment.TIME_PARAM, Long.class));
+    }
+
+    // The async service starts fetching the first batch as soon as the iterator is created.
+    AsyncDatastoreService datastore =
+        DatastoreServiceFactory.getAsyncDatastoreService(DEFAULT_DATASTORE_CONFIG);
+    PreparedQuery results = datastore.prepare(query);
+    return () ->
+        new FeedIterator(results.asIterator(FetchOptions.Builder.withChunkSize(chunkSize)), cursor);
+  }
+
+  /**
+   * Returns whether a view in {@code languageCode} only reads each comment's text, detected
+   * language and timestamp. Materialized languages also read the stored translations, which a
+   * projection cannot return for comments that do not have them yet.
+   */
+  private boolean needsOnlyText(String languageCode) {
+    return !TRANSLATION_MATERIALIZER.isMaterialized(languageCode);
+  }
+
+  /**
+   * Returns a weak entity tag for one view of the feed in one content type. It combines the view
+   * parameters with {@code version}, the version of the newest comments, and the translation
+   * fallback count, so a page served with untranslated fallbacks is not revalidated forever.
+   */
+  private String getEntityTag(PageView view, String version) {
+    String viewKey =
+        view.commentLimit
+            + "|"
+            + view.languageCode
+            + "|"
+            + (view.cursorString == null ? "" : view.cursorString)
+            + "|"
+            + view.contentType
+            + "|"
+            + version
+            + "|"
+            + COMMENT_TRANSLATOR.getFallbackCount();
+    // A full digest, since a colliding tag would answer 304 with stale content.
+    byte[] digest;
+    try {
+      digest =
+          MessageDigest.getInstance("SHA-256").digest(viewKey.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to ship SHA-256.
+      throw new IllegalStateException(e);
+    }
+    return "W/\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+  }
+
+  /**
+   * Returns whether the client's cached copy is current. If-None-Match takes precedence over
+   * If-Modified-Since, as required by RFC 7232.
+   */
+  private boolean isNotModified(HttpServletRequest request, String etag, long lastModifiedMillis) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String candidate : ifNoneMatch.split(",")) {
+        String trimmed = candidate.trim();
+        if (trimmed.equals("*") || weakTag(trimmed).equals(weakTag(etag))) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    // HTTP dates have a resolution of one second.
+    return ifModifiedSince >= 0
+        && lastModifiedMillis > 0
+        && lastModifiedMillis / 1000 <= ifModifiedSince / 1000;
+  }
+
+  private static String weakTag(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  /**
+   * Returns the newest {@code count} comment entities from the recent comments cache, loading it
+   * from Datastore first if it is empty or expired.
+   */
+  private List<Entity> getRecentComments(int count) {
+    List<Entity> cached = RECENT_COMMENTS.getNewest(count);
+    if (cached != null) {
+      return cached;
+    }
+
+    long generation = RECENT_COMMENTS.getGeneration();
+    int capacity = RECENT_COMMENTS.getCapacity();
+    List<Entity> newest = new ArrayList<>(capacity);
+    // The cache serves every language, so it holds whole entities.
+    for (Entity entity : queryFeed(null, capacity, /* projectText = */ false)) {
+      newest.add(entity);
+      if (newest.size() == capacity) {
+        break;
+      }
+    }
+    RECENT_COMMENTS.load(newest, generation);
+
+    return newest.subList(0, Math.min(count, newest.size()));
   }
 
   @Override
@@ -76,34 +650,96 @@ public class DataServlet extends HttpServlet {
     if (comment != null) {
       long timestampMillis = System.currentTimeMillis();
 
-      Entity commentEntity = new Entity(Comment.ENTITY_NAME_PARAM);
+      Entity commentEntity = new Entity(COMMENT_KEYS.next());
       commentEntity.setProperty(Comment.TEXT_PARAM, comment);
       commentEntity.setProperty(Comment.TIME_PARAM, timestampMillis);
+      Comment.setSourceLanguage(commentEntity, null);
 
-      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-      datastore.put(commentEntity);
+      // The redirected page reads the feed before the comment is flushed, so show it right away.
+      // It is added before it is queued, so that the flush cannot overtake it.
+      RECENT_COMMENTS.addPending(commentEntity);
+      RESPONSE_CACHE.invalidate();
+      if (!INGEST_QUEUE.offer(commentEntity)) {
+        RECENT_COMMENTS.remove(commentEntity.getKey());
+        RESPONSE_CACHE.invalidate();
+        response.setHeader("Retry-After", "1");
+        response.sendError(
+            HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many comments, try again shortly");
+        return;
+      }
     }
     response.sendRedirect("/index.html#comment-container");
   }
 
-  private Comment commentFromEntity(Entity entity, String languageCode) {
-    String text = (String) entity.getProperty(Comment.TEXT_PARAM);
-    long timestampMillis = (long) entity.getProperty(Comment.TIME_PARAM);
+  /** Called on the ingest listener thread once a batch of new comments has been stored. */
+  private static void onCommentsStored(List<Entity> entities) {
+    for (Entity entity : entities) {
+      RECENT_COMMENTS.add(entity);
+    }
+    RESPONSE_CACHE.invalidate();
+    SearchServlet.indexComments(entities);
+
+    // The materializer sets properties on its own thread, so it gets copies; the entities
+    // themselves are still read below.
+    List<Entity> copies = new ArrayList<>(entities.size());
+    for (Entity entity : entities) {
+      copies.add(entity.clone());
+    }
+    TRANSLATION_MATERIALIZER.schedule(copies);
+
+    try {
+      COMMENT_COUNTER.increment(entities);
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Failed to count " + entities.size() + " comments", e);
+    }
+  }
+
+  /** Called on the ingest listener thread when a batch of new comments could not be stored. */
+  private static void onCommentsDropped(List<Entity> entities) {
+    for (Entity entity : entities) {
+      RECENT_COMMENTS.remove(entity.getKey());
+    }
+    RESPONSE_CACHE.invalidate();
+  }
 
-    // Do the translation.
-    Translate translate = TranslateOptions.getDefaultInstance().getService();
-    Translation translation =
-        translate.translate(text, Translate.TranslateOption.targetLanguage(languageCode));
-    String translatedText = translation.getTranslatedText();
+  /**
+   * Called on the materializer thread once a comment's detected language and translations have been
+   * stored, so that first pages served from the cache use them too.
+   */
+  private static void onDerivedPropertiesStored(Entity entity) {
+    RECENT_COMMENTS.update(entity);
+  }
 
-    Comment comment = new Comment(translatedText, timestampMillis);
-    return comment;
+  /** Returns the stored translation of the comment, or null if it has not been materialized. */
+  private static String getMaterializedText(Entity entity, String languageCode) {
+    if (!TRANSLATION_MATERIALIZER.isMaterialized(languageCode)) {
+      return null;
+    }
+    return Comment.getDerivedProperty(entity, Comment.translatedTextParam(languageCode));
   }
 
   private int getCommentLimit(HttpServletRequest request) {
     String commentLimitString = request.getParameter("limit");
+    if (commentLimitString == null) {
+      return MIN_COMMENT_LIMIT;
+    }
 
-    return Math.max(Integer.parseInt(commentLimitString), MIN_COMMENT_LIMIT);
+    int commentLimit;
+    try {
+      commentLimit = Integer.parseInt(commentLimitString);
+    } catch (NumberFormatException e) {
+      return MIN_COMMENT_LIMIT;
+    }
+    return Math.min(Math.max(commentLimit, MIN_COMMENT_LIMIT), MAX_COMMENT_LIMIT);
+  }
+
+  /** Returns the position to continue from, or null for the first page. */
+  private PageCursor getCursor(HttpServletRequest request) {
+    String cursorString = request.getParameter("cursor");
+    if (cursorString == null || cursorString.isEmpty()) {
+      return null;
+    }
+    return PageCursor.fromWebSafeString(cursorString);
   }
 
   private String getLanguageCode(HttpServletRequest request) {
@@ -114,4 +750,65 @@ public class DataServlet extends HttpServlet {
       return languageCode;
     }
   }
+
+  /**
+   * Returns the translation backend. Setting the system property {@code sps.translator} to
+   * {@code fake} in appengine-web.xml swaps in an offline {@link FakeTranslator}.
+   */
+  private static Translator createTranslator() {
+    if ("fake".equals(System.getProperty("sps.translator"))) {
+      return new FakeTranslator();
+    }
+    return new CloudTranslator();
+  }
+
+  /** What one GET asks for, and the response cache slot reserved for it, if any. */
+  private static final class PageView {
+    private final int commentLimit;
+    private final String languageCode;
+    // Null for the first page.
+    private final PageCursor cursor;
+    private final String cursorString;
+    private final boolean protobuf;
+    private final String contentType;
+    private final boolean acceptsGzip;
+    private ResponseCache.Slot cacheSlot;
+
+    PageView(
+        int commentLimit,
+        String languageCode,
+        PageCursor cursor,
+        String cursorString,
+        boolean protobuf,
+        boolean acceptsGzip) {
+      this.commentLimit = commentLimit;
+      this.languageCode = languageCode;
+      this.cursor = cursor;
+      this.cursorString = cursorString;
+      this.protobuf = protobuf;
+      this.contentType = protobuf ? CommentProtoEncoder.CONTENT_TYPE : "application/json";
+      this.acceptsGzip = acceptsGzip;
+    }
+  }
+
+  /** One page of comment entities and, once translated, their texts. */
+  private static final class FeedPage {
+    private final List<Entity> entities;
+    private final String[] texts;
+    // Null when there are no older comments.
+    private final String nextCursor;
+
+    /** @param entities the page's entities, plus one more if there is a next page */
+    FeedPage(List<Entity> entities, int commentLimit) {
+      if (entities.size() > commentLimit) {
+        this.entities = entities.subList(0, commentLimit);
+        this.nextCursor =
+            PageCursor.fromEntity(entities.get(commentLimit - 1)).toWebSafeString();
+      } else {
+        this.entities = entities;
+        this.nextCursor = null;
+      }
+      this.texts = new String[this.entities.size()];
+    }
+  }
 }
@@ -19,45 +19,191 @@ import com.google.appengine.api.datastore.DatastoreServiceConfig;
 import com.google.appengine.api.datastore.DatastoreServiceConfig.Builder;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.datastore.ReadPolicy;
 import com.google.appengine.api.datastore.ReadPolicy.Consistency;
 import com.google.gson.*;
+import com.google.sps.data.BackgroundThreads;
 import com.google.sps.data.Comment;
+import com.google.sps.data.DeleteJob;
+import com.google.sps.metrics.LatencyHistogram;
+import com.google.sps.metrics.MetricsRegistry;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that deletes datastore data. */
+/**
+ * Servlet that deletes datastore data. POST starts a background job that deletes every comment and
+ * returns its id; GET with {@code job=<id>} reports the job's progress, which is kept in Datastore
+ * so that any instance can answer.
+ */
 @WebServlet("/delete-data")
 public class DeleteServlet extends HttpServlet {
 
+  private static final Logger logger = Logger.getLogger(DeleteServlet.class.getName());
+
   private static final DatastoreServiceConfig DEFAULT_DATASTORE_CONFIG =
       DatastoreServiceConfig.Builder.withReadPolicy(new ReadPolicy(Consistency.STRONG)).deadline(5.0);
 
+  // Keys are deleted in batches of this size (the Datastore limit for one call), with up to
+  // DELETE_PARALLELISM batches in flight, so that no single RPC gets near the deadline.
+  private static final int DELETE_BATCH_SIZE = 500;
+  private static final int DELETE_PARALLELISM = 4;
+
+  private static final ExecutorService JOB_EXECUTOR =
+      Executors.newSingleThreadExecutor(BackgroundThreads.factory("delete-job"));
+  private static final ExecutorService BATCH_EXECUTOR =
+      Executors.newFixedThreadPool(DELETE_PARALLELISM, BackgroundThreads.factory("delete-batch"));
+
+  // "query" is the time spent reading one batch of keys, "delete" the time to delete it.
+  private static final String PHASE_METRIC = "sps_delete_phase_seconds";
+  private static final String PHASE_HELP = "Latency of each phase of a delete batch.";
+  private static final LatencyHistogram QUERY_LATENCY =
+      MetricsRegistry.latency(PHASE_METRIC, PHASE_HELP, "query");
+  private static final LatencyHistogram DELETE_LATENCY =
+      MetricsRegistry.latency(PHASE_METRIC, PHASE_HELP, "delete");
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query(Comment.ENTITY_NAME_PARAM);
+    DeleteJob job = new DeleteJob();
+    // Stored before it starts, so a poll that reaches another instance finds it right away.
+    job.save();
+    JOB_EXECUTOR.execute(() -> runJob(job));
+
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    writeJob(job, response);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String jobId = request.getParameter("job");
+    DeleteJob job = jobId == null || jobId.isEmpty() ? null : DeleteJob.load(jobId);
+    if (job == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown delete job");
+      return;
+    }
+    writeJob(job, response);
+  }
+
+  private void runJob(DeleteJob job) {
+    // Stop serving cached comments right away, and again once they are all gone.
+    DataServlet.RECENT_COMMENTS.clear();
+    DataServlet.RESPONSE_CACHE.invalidate();
+    try {
+      deleteAllComments(job);
+      job.markDone();
+    } catch (RuntimeException | ExecutionException e) {
+      logger.log(Level.WARNING, "Delete job " + job.getJobId() + " failed", e);
+      job.markFailed(e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      job.markFailed("Interrupted");
+    } finally {
+      DataServlet.RECENT_COMMENTS.clear();
+      DataServlet.RESPONSE_CACHE.invalidate();
+    }
+  }
+
+  /**
+   * Reads comment keys, with their timestamps for the counter, from a projection query and deletes
+   * them in concurrent batches.
+   */
+  private void deleteAllComments(DeleteJob job) throws ExecutionException, InterruptedException {
+    Query query =
+        new Query(Comment.ENTITY_NAME_PARAM)
+            .addProjection(new PropertyProjection(Comment.TIME_PARAM, Long.class));
 
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService(DEFAULT_DATASTORE_CONFIG);
     PreparedQuery results = datastore.prepare(query);
 
-    List<Key> keyList = keyListBuilder(results);
-    datastore.delete(keyList);
-  }
+    // Bounds the batches held in memory while earlier ones are still being deleted.
+    Semaphore inFlight = new Semaphore(DELETE_PARALLELISM * 2);
+    List<Future<?>> futures = new ArrayList<>();
+    List<Entity> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+
+    long batchStartNanos = System.nanoTime();
+    for (Entity entity : results.asIterable(FetchOptions.Builder.withChunkSize(DELETE_BATCH_SIZE))) {
+      batch.add(entity);
+      if (batch.size() == DELETE_BATCH_SIZE) {
+        QUERY_LATENCY.recordSince(batchStartNanos);
+        futures.add(submitBatch(datastore, batch, job, inFlight));
+        batch = new ArrayList<>(DELETE_BATCH_SIZE);
+        batchStartNanos = System.nanoTime();
+      }
+    }
+    if (!batch.isEmpty()) {
+      QUERY_LATENCY.recordSince(batchStartNanos);
+      futures.add(submitBatch(datastore, batch, job, inFlight));
+    }
 
-  private List<Key> keyListBuilder(PreparedQuery results) {
-    List<Key> keyList = new ArrayList<>();
-    for (Entity entity : results.asIterable()) {
-      keyList.add(entity.getKey());
+    // Waits for every batch, so that the job is not reported finished while some still run.
+    ExecutionException failure = null;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
     }
-    return keyList;
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private Future<?> submitBatch(
+      DatastoreService datastore, List<Entity> comments, DeleteJob job, Semaphore inFlight)
+      throws InterruptedException {
+    inFlight.acquire();
+    return BATCH_EXECUTOR.submit(
+        () -> {
+          long startNanos = System.nanoTime();
+          try {
+            List<Key> keys = new ArrayList<>(comments.size());
+            for (Entity comment : comments) {
+              keys.add(comment.getKey());
+            }
+            datastore.delete(keys);
+            job.addDeleted(keys.size());
+            for (Key key : keys) {
+              SearchServlet.SEARCH_INDEX.remove(key);
+            }
+            // Only the deleted comments stop being counted; ones posted meanwhile still are. A
+            // failure is recorded on the job and fails it, since the counts are now too high.
+            try {
+              DataServlet.COMMENT_COUNTER.decrement(comments);
+            } catch (RuntimeException e) {
+              job.addUncounted(comments.size());
+              throw e;
+            }
+          } finally {
+            DELETE_LATENCY.recordSince(startNanos);
+            inFlight.release();
+          }
+        });
+  }
+
+  private void writeJob(DeleteJob job, HttpServletResponse response) throws IOException {
+    Gson gson = new Gson();
+    String json = gson.toJson(job);
+
+    response.setContentType("application/json;");
+    response.getWriter().println(json);
   }
 }
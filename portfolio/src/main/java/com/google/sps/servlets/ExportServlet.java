@@ -0,0 +1,168 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.Comment;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that exports every comment as newline-delimited JSON, one object per line, gzipped if the
+ * client accepts it.
+ *
+ * <p>Comments are read a page at a time with Datastore cursors. App Engine standard does not
+ * stream: it buffers the whole response and sends it once the request returns, so one response
+ * cannot hold the full export. It holds at most {@code MAX_PAGES_PER_RESPONSE} pages (20) and stops
+ * after the page that takes it past {@code MAX_BYTES_PER_RESPONSE} bytes (8 MiB), which keeps it
+ * within the request deadline and response size limit. If comments remain, its last line is {@code
+ * {"nextCursor": "<cursor>"}}, and clients must request {@code cursor=<cursor>} to fetch the rest,
+ * repeating until a response comes without that line.
+ *
+ * <p>After every page a {@code {"checkpoint": "<cursor>"}} line is written, so that a client that
+ * fails partway through reading a response can resume from the last checkpoint it parsed.
+ */
+@WebServlet("/data/export")
+public class ExportServlet extends HttpServlet {
+
+  private static final int PAGE_SIZE = 500;
+  private static final int MAX_PAGES_PER_RESPONSE = 20;
+  private static final long MAX_BYTES_PER_RESPONSE = 8 * 1024 * 1024;
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(PAGE_SIZE);
+    String cursorString = request.getParameter("cursor");
+    if (cursorString != null && !cursorString.isEmpty()) {
+      try {
+        fetchOptions.startCursor(Cursor.fromWebSafeString(cursorString));
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+        return;
+      }
+    }
+
+    // The response is buffered until doGet returns; the page and byte budgets bound its size.
+    response.setContentType("application/x-ndjson");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Vary", "Accept-Encoding");
+    CountingOutputStream sent = new CountingOutputStream(response.getOutputStream());
+    OutputStream out = sent;
+    if (acceptsGzip(request)) {
+      response.setHeader("Content-Encoding", "gzip");
+      // Sync flush, so that the byte count covers every page written so far.
+      out = new GZIPOutputStream(out, /* syncFlush = */ true);
+    }
+
+    // Key order is stable across requests, which is what makes a saved cursor resumable.
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    PreparedQuery results = datastore.prepare(new Query(Comment.ENTITY_NAME_PARAM));
+
+    try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+      for (int pageCount = 1; ; pageCount++) {
+        QueryResultList<Entity> page = results.asQueryResultList(fetchOptions);
+        for (Entity entity : page) {
+          writeComment(writer, entity);
+        }
+        if (page.isEmpty()) {
+          break;
+        }
+
+        Cursor cursor = page.getCursor();
+        writeCursorLine(writer, "checkpoint", cursor);
+        writer.flush();
+        if (page.size() < PAGE_SIZE) {
+          break;
+        }
+        if (pageCount == MAX_PAGES_PER_RESPONSE || sent.getCount() >= MAX_BYTES_PER_RESPONSE) {
+          writeCursorLine(writer, "nextCursor", cursor);
+          break;
+        }
+        fetchOptions.startCursor(cursor);
+      }
+    }
+  }
+
+  private void writeComment(Writer writer, Entity entity) throws IOException {
+    JsonWriter line = new JsonWriter(writer);
+    line.beginObject();
+    line.name("id").value(KeyFactory.keyToString(entity.getKey()));
+    line.name(Comment.TEXT_PARAM).value((String) entity.getProperty(Comment.TEXT_PARAM));
+    line.name(Comment.TIME_PARAM).value((long) entity.getProperty(Comment.TIME_PARAM));
+    String sourceLang = Comment.getSourceLanguage(entity);
+    if (sourceLang != null) {
+      line.name(Comment.SOURCE_LANG_PARAM).value(sourceLang);
+    }
+    line.endObject();
+    writer.write('\n');
+  }
+
+  private void writeCursorLine(Writer writer, String name, Cursor cursor) throws IOException {
+    JsonWriter line = new JsonWriter(writer);
+    line.beginObject();
+    line.name(name).value(cursor.toWebSafeString());
+    line.endObject();
+    writer.write('\n');
+  }
+
+  private boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+  }
+
+  /** Counts the bytes written through it, i.e. the bytes sent after any compression. */
+  private static final class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+}
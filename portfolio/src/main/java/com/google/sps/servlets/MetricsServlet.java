@@ -0,0 +1,83 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentIngestQueue;
+import com.google.sps.data.ResponseCache;
+import com.google.sps.metrics.MetricsRegistry;
+import com.google.sps.translation.TranslationCache;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that reports latency histograms and counters in the Prometheus text exposition format.
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType("text/plain; version=0.0.4");
+    response.setCharacterEncoding("UTF-8");
+    PrintWriter out = response.getWriter();
+
+    MetricsRegistry.writePrometheus(out);
+
+    TranslationCache cache = DataServlet.TRANSLATION_CACHE;
+    writeMetric(out, "sps_translation_cache_hits_total", "counter", cache.getHitCount());
+    writeMetric(out, "sps_translation_cache_misses_total", "counter", cache.getMissCount());
+    writeMetric(out, "sps_translation_cache_evictions_total", "counter", cache.getEvictionCount());
+    writeMetric(out, "sps_translation_cache_entries", "gauge", cache.size());
+    writeMetric(out, "sps_translation_cache_bytes", "gauge", cache.sizeBytes());
+    writeMetric(
+        out,
+        "sps_translation_fallbacks_total",
+        "counter",
+        DataServlet.COMMENT_TRANSLATOR.getFallbackCount());
+    writeMetric(
+        out,
+        "sps_translation_skipped_total",
+        "counter",
+        DataServlet.SKIPPED_TRANSLATION_COUNT.get());
+
+    ResponseCache responseCache = DataServlet.RESPONSE_CACHE;
+    writeMetric(out, "sps_response_cache_hits_total", "counter", responseCache.getHitCount());
+    writeMetric(out, "sps_response_cache_misses_total", "counter", responseCache.getMissCount());
+    writeMetric(out, "sps_response_cache_bytes", "gauge", responseCache.sizeBytes());
+
+    CommentIngestQueue queue = DataServlet.INGEST_QUEUE;
+    writeMetric(out, "sps_ingest_queue_depth", "gauge", queue.getDepth());
+    writeMetric(out, "sps_ingest_rejected_total", "counter", queue.getRejectedCount());
+    writeMetric(out, "sps_ingest_flushes_total", "counter", queue.getFlushCount());
+    writeMetric(out, "sps_ingest_flushed_comments_total", "counter", queue.getFlushedEntityCount());
+    writeMetric(out, "sps_ingest_dropped_comments_total", "counter", queue.getDroppedEntityCount());
+    writeMetric(
+        out,
+        "sps_ingest_last_flush_seconds",
+        "gauge",
+        queue.getLastFlushLatencyMillis() / 1000.0);
+
+    writeMetric(out, "sps_search_indexed_comments", "gauge", SearchServlet.SEARCH_INDEX.size());
+  }
+
+  private void writeMetric(PrintWriter out, String name, String type, Number value) {
+    out.println("# TYPE " + name + " " + type);
+    out.println(name + " " + value);
+  }
+}
@@ -0,0 +1,236 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceConfig;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.ReadPolicy;
+import com.google.appengine.api.datastore.ReadPolicy.Consistency;
+import com.google.gson.*;
+import com.google.sps.data.BackgroundThreads;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentSearchIndex;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that searches comments with {@code q=<terms>}, newest matches first. Terms must all
+ * match; a term ending in {@code *} matches by prefix.
+ *
+ * <p>Each instance keeps its own index. It is built from Datastore by a background thread when the
+ * servlet starts, and searches are answered with a 503 until that has finished; a failed build is
+ * retried from where it stopped. Comments stored on this instance are indexed as they are stored,
+ * and the same thread catches up on comments stored by other instances every {@code
+ * SYNC_INTERVAL_MILLIS}, by querying for comments newer than the newest it has indexed. Deletions
+ * are applied by {@link DeleteServlet}; comments deleted elsewhere are skipped when results are
+ * read.
+ */
+@WebServlet(urlPatterns = "/data/search", loadOnStartup = 1)
+public class SearchServlet extends HttpServlet {
+
+  private static final Logger logger = Logger.getLogger(SearchServlet.class.getName());
+
+  private static final DatastoreServiceConfig DEFAULT_DATASTORE_CONFIG =
+      DatastoreServiceConfig.Builder.withReadPolicy(new ReadPolicy(Consistency.STRONG)).deadline(5.0);
+  private static final int DEFAULT_RESULT_LIMIT = 10;
+  private static final int MAX_RESULT_LIMIT = 100;
+  private static final int REBUILD_CHUNK_SIZE = 500;
+  private static final long SYNC_INTERVAL_MILLIS = 10 * 1000;
+  // Failed syncs are retried after this delay, doubled after every further failure.
+  private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+  private static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000;
+
+  static final CommentSearchIndex SEARCH_INDEX = new CommentSearchIndex();
+
+  // Set once the index holds every comment that was stored when the servlet started.
+  private static volatile boolean indexReady = false;
+  // Newest timestamp indexed by syncIndex(), which is the only thread that uses it.
+  private static long indexedUntilMillis = Long.MIN_VALUE;
+
+  @Override
+  public void init() {
+    BackgroundThreads.start("search-sync", SearchServlet::syncIndex);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String query = request.getParameter("q");
+    if (query == null || query.trim().isEmpty()) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing search query");
+      return;
+    }
+    if (!indexReady) {
+      response.setHeader("Retry-After", "5");
+      response.sendError(
+          HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Search is starting, try again shortly");
+      return;
+    }
+
+    List<Key> keys = SEARCH_INDEX.search(query, getResultLimit(request));
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService(DEFAULT_DATASTORE_CONFIG);
+    Map<Key, Entity> entities = datastore.get(keys);
+
+    // Keep the index's newest-first order; comments deleted since they were indexed are skipped.
+    List<Comment> comments = new ArrayList<>(keys.size());
+    for (Key key : keys) {
+      Entity entity = entities.get(key);
+      if (entity != null) {
+        String text = (String) entity.getProperty(Comment.TEXT_PARAM);
+        long timestampMillis = (long) entity.getProperty(Comment.TIME_PARAM);
+        comments.add(new Comment(text, timestampMillis));
+      }
+    }
+
+    Gson gson = new Gson();
+    String json = gson.toJson(Collections.singletonMap("comments", comments));
+
+    response.setContentType("application/json;");
+    response.getWriter().println(json);
+  }
+
+  /** Indexes stored comments, e.g. once they have been written by the ingest queue. */
+  static void indexComments(List<Entity> entities) {
+    for (Entity entity : entities) {
+      SEARCH_INDEX.add(
+          entity.getKey(),
+          (String) entity.getProperty(Comment.TEXT_PARAM),
+          (long) entity.getProperty(Comment.TIME_PARAM));
+    }
+  }
+
+  /**
+   * Builds the index, then keeps catching up on new comments until the instance shuts down. A
+   * failed pass is retried with backoff; since every pass resumes from the newest comment indexed
+   * so far, a retried build does not start over.
+   */
+  private static void syncIndex() {
+    long retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+    while (true) {
+      long delayMillis;
+      try {
+        int indexedCount = catchUp();
+        if (!indexReady) {
+          indexReady = true;
+          logger.info("Search index built with " + SEARCH_INDEX.size() + " comments");
+        } else if (indexedCount > 0) {
+          logger.fine("Search index caught up on " + indexedCount + " comments");
+        }
+        delayMillis = SYNC_INTERVAL_MILLIS;
+        retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Search index sync failed, retrying", e);
+        delayMillis = retryDelayMillis;
+        retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+      }
+
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        // The instance is shutting down.
+        return;
+      }
+    }
+  }
+
+  /**
+   * Indexes every comment newer than the newest one indexed so far, returning how many were read.
+   * The first pass reads every comment.
+   *
+   * <p>A comment is stored up to {@link CommentUpdatesServlet#getSettleMillis} after its timestamp,
+   * so a comment can turn up older than one already indexed; each pass therefore starts that much
+   * before the newest indexed timestamp, and the index ignores comments it already has.
+   *
+   * <p>Comments are read oldest first with a projection query, which keeps posting-list inserts to
+   * appends, and indexed a chunk at a time as they arrive, so a pass holds no more than one chunk
+   * in memory. Comments deleted meanwhile are not added back, since the index keeps tombstones.
+   */
+  private static int catchUp() {
+    Query query =
+        new Query(Comment.ENTITY_NAME_PARAM)
+            .addSort(Comment.TIME_PARAM, SortDirection.ASCENDING)
+            .addProjection(new PropertyProjection(Comment.TEXT_PARAM, String.class))
+            .addProjection(new PropertyProjection(Comment.TIME_PARAM, Long.class));
+    if (indexedUntilMillis != Long.MIN_VALUE) {
+      long fromMillis = indexedUntilMillis - CommentUpdatesServlet.getSettleMillis();
+      query.setFilter(
+          new FilterPredicate(
+              Comment.TIME_PARAM, FilterOperator.GREATER_THAN_OR_EQUAL, fromMillis));
+    }
+
+    DatastoreService datastore =
+        DatastoreServiceFactory.getDatastoreService(DEFAULT_DATASTORE_CONFIG);
+    PreparedQuery results = datastore.prepare(query);
+    int readCount = 0;
+    List<Entity> chunk = new ArrayList<>(REBUILD_CHUNK_SIZE);
+    for (Entity entity :
+        results.asIterable(FetchOptions.Builder.withChunkSize(REBUILD_CHUNK_SIZE))) {
+      chunk.add(entity);
+      if (chunk.size() == REBUILD_CHUNK_SIZE) {
+        readCount += indexChunk(chunk);
+      }
+    }
+    readCount += indexChunk(chunk);
+    return readCount;
+  }
+
+  /**
+   * Indexes and clears a chunk of comments read oldest first, then records the newest of them, so
+   * that a failure later in the pass resumes after it. Returns the size of the chunk.
+   */
+  private static int indexChunk(List<Entity> chunk) {
+    int size = chunk.size();
+    if (size > 0) {
+      indexComments(chunk);
+      indexedUntilMillis =
+          Math.max(indexedUntilMillis, (long) chunk.get(size - 1).getProperty(Comment.TIME_PARAM));
+      chunk.clear();
+    }
+    return size;
+  }
+
+  private int getResultLimit(HttpServletRequest request) {
+    String limitString = request.getParameter("limit");
+    if (limitString == null) {
+      return DEFAULT_RESULT_LIMIT;
+    }
+
+    int limit;
+    try {
+      limit = Integer.parseInt(limitString);
+    } catch (NumberFormatException e) {
+      return DEFAULT_RESULT_LIMIT;
+    }
+    return Math.min(Math.max(limit, 1), MAX_RESULT_LIMIT);
+  }
+}
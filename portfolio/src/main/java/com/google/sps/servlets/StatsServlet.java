@@ -0,0 +1,69 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.*;
+import com.google.sps.data.CommentCounter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that reports the total number of comments and the number written on each of the last
+ * {@code days} UTC days, read from the sharded counter rather than from the comments themselves.
+ */
+@WebServlet("/data/stats")
+public class StatsServlet extends HttpServlet {
+
+  private static final int DEFAULT_DAYS = 30;
+  private static final int MAX_DAYS = 366;
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    int days = getDays(request);
+    long fromMillis = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days - 1);
+
+    Map<String, Object> stats = new LinkedHashMap<>();
+    CommentCounter counter = DataServlet.COMMENT_COUNTER;
+    stats.put("total", counter.getTotal());
+    stats.put("daily", counter.getDailyCounts(CommentCounter.dayOf(fromMillis)));
+
+    Gson gson = new Gson();
+    String json = gson.toJson(stats);
+
+    response.setContentType("application/json;");
+    response.getWriter().println(json);
+  }
+
+  private int getDays(HttpServletRequest request) {
+    String daysString = request.getParameter("days");
+    if (daysString == null) {
+      return DEFAULT_DAYS;
+    }
+
+    int days;
+    try {
+      days = Integer.parseInt(daysString);
+    } catch (NumberFormatException e) {
+      return DEFAULT_DAYS;
+    }
+    return Math.min(Math.max(days, 1), MAX_DAYS);
+  }
+}
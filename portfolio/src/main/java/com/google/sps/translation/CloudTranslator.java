@@ -0,0 +1,53 @@
+package com.google.sps.translation;
+
+import com.google.cloud.translate.Detection;
+import com.google.cloud.translate.Translate;
+import com.google.cloud.translate.TranslateOptions;
+import com.google.cloud.translate.Translation;
+import java.util.ArrayList;
+import java.util.List;
+
+/** {@link Translator} backed by the Cloud Translation API. */
+public final class CloudTranslator implements Translator {
+
+  // Created on first use so that a missing configuration fails the request instead of the
+  // servlet's class initialization.
+  private volatile Translate translate;
+
+  @Override
+  public List<String> translate(List<String> texts, String languageCode) {
+    List<Translation> translations =
+        getService().translate(texts, Translate.TranslateOption.targetLanguage(languageCode));
+
+    List<String> translatedTexts = new ArrayList<>(translations.size());
+    for (Translation translation : translations) {
+      translatedTexts.add(translation.getTranslatedText());
+    }
+    return translatedTexts;
+  }
+
+  @Override
+  public List<String> detect(List<String> texts) {
+    List<Detection> detections = getService().detect(texts);
+
+    List<String> languageCodes = new ArrayList<>(detections.size());
+    for (Detection detection : detections) {
+      languageCodes.add(detection.getLanguage());
+    }
+    return languageCodes;
+  }
+
+  private Translate getService() {
+    Translate service = translate;
+    if (service == null) {
+      synchronized (this) {
+        service = translate;
+        if (service == null) {
+          service = TranslateOptions.getDefaultInstance().getService();
+          translate = service;
+        }
+      }
+    }
+    return service;
+  }
+}
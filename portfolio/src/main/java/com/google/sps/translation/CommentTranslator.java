@@ -0,0 +1,240 @@
+package com.google.sps.translation;
+
+import com.google.sps.data.BackgroundThreads;
+import com.google.sps.metrics.LatencyHistogram;
+import com.google.sps.metrics.MetricsRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Translates a page of comment texts at once. Texts found in the {@link TranslationCache} are
+ * served from it; the rest are sent to the {@link Translator} in chunks of at most {@code
+ * chunkSize} texts, and the results are mapped back to their original positions.
+ *
+ * <p>Chunks are translated in parallel on a bounded pool shared by all requests. A call waits at
+ * most {@code timeoutMillis} in total; any chunk that has not been translated by then, or whose
+ * backend call failed, falls back to the original texts.
+ */
+public final class CommentTranslator {
+
+  // Chunks waiting for a free translation thread. Once full, further chunks fall back immediately
+  // instead of piling up behind a slow backend.
+  private static final int MAX_QUEUED_CHUNKS = 256;
+
+  // Completes chunks that miss their deadline. Shared by every translator; its tasks are tiny and
+  // call no App Engine API, so it can be a plain thread.
+  private static final ScheduledExecutorService DEADLINE_TIMER =
+      Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("translation-deadline"));
+
+  // Includes calls that are later abandoned at the deadline, since they still hold a thread.
+  private static final LatencyHistogram CALL_LATENCY =
+      MetricsRegistry.latency(
+          "sps_translation_call_seconds", "Latency of one chunked translation call.", "translate");
+
+  private final Translator translator;
+  private final TranslationCache cache;
+  private final int chunkSize;
+  private final long timeoutMillis;
+  private final ExecutorService executor;
+
+  private final AtomicLong fallbackCount = new AtomicLong();
+
+  public CommentTranslator(
+      Translator translator,
+      TranslationCache cache,
+      int chunkSize,
+      int parallelism,
+      long timeoutMillis) {
+    this(
+        translator,
+        cache,
+        chunkSize,
+        parallelism,
+        timeoutMillis,
+        BackgroundThreads.factory("translation"));
+  }
+
+  /**
+   * Creates a translator whose backend calls run on threads from {@code threadFactory}. Outside App
+   * Engine, e.g. in tests, any factory will do; on App Engine the threads must be able to call the
+   * URL Fetch service that the Cloud Translation client goes through.
+   */
+  public CommentTranslator(
+      Translator translator,
+      TranslationCache cache,
+      int chunkSize,
+      int parallelism,
+      long timeoutMillis,
+      ThreadFactory threadFactory) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive");
+    }
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    if (timeoutMillis <= 0) {
+      throw new IllegalArgumentException("timeoutMillis must be positive");
+    }
+    this.translator = translator;
+    this.cache = cache;
+    this.chunkSize = chunkSize;
+    this.timeoutMillis = timeoutMillis;
+    this.executor =
+        new ThreadPoolExecutor(
+            parallelism,
+            parallelism,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_CHUNKS),
+            threadFactory);
+  }
+
+  /**
+   * Returns the translations of {@code texts} into {@code languageCode}, in input order. Texts that
+   * could not be translated before the deadline are returned untranslated.
+   */
+  public List<String> translate(List<String> texts, String languageCode) {
+    return translateAsync(texts, languageCode).join();
+  }
+
+  /**
+   * Asynchronous form of {@link #translate}. The returned future completes by the deadline at the
+   * latest, and never exceptionally; no thread is blocked while it is pending.
+   */
+  public CompletableFuture<List<String>> translateAsync(List<String> texts, String languageCode) {
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    String[] translatedTexts = new String[texts.size()];
+
+    // Collect the positions of the texts that still need a backend call.
+    List<Integer> pendingIndexes = new ArrayList<>();
+    for (int i = 0; i < texts.size(); i++) {
+      String cached = cache.get(texts.get(i), languageCode);
+      if (cached == null) {
+        pendingIndexes.add(i);
+      } else {
+        translatedTexts[i] = cached;
+      }
+    }
+
+    List<CompletableFuture<Void>> chunkFutures = new ArrayList<>();
+    for (int start = 0; start < pendingIndexes.size(); start += chunkSize) {
+      List<Integer> chunkIndexes =
+          pendingIndexes.subList(start, Math.min(start + chunkSize, pendingIndexes.size()));
+      List<String> chunkTexts = new ArrayList<>(chunkIndexes.size());
+      for (int index : chunkIndexes) {
+        chunkTexts.add(texts.get(index));
+      }
+
+      chunkFutures.add(
+          submit(chunkTexts, languageCode, deadlineNanos)
+              .thenAccept(
+                  translations -> {
+                    for (int j = 0; j < chunkIndexes.size(); j++) {
+                      int index = chunkIndexes.get(j);
+                      if (translations == null) {
+                        translatedTexts[index] = texts.get(index);
+                        fallbackCount.incrementAndGet();
+                      } else {
+                        translatedTexts[index] = translations.get(j);
+                        cache.put(texts.get(index), languageCode, translations.get(j));
+                      }
+                    }
+                  }));
+    }
+
+    return CompletableFuture.allOf(chunkFutures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(done -> Arrays.asList(translatedTexts));
+  }
+
+  /**
+   * Returns how many backend calls translating {@code texts} into {@code languageCode} would take
+   * right now, i.e. how many chunks its uncached texts fill.
+   */
+  public int countBackendCalls(List<String> texts, String languageCode) {
+    int uncachedCount = 0;
+    for (String text : texts) {
+      if (!cache.contains(text, languageCode)) {
+        uncachedCount++;
+      }
+    }
+    return (uncachedCount + chunkSize - 1) / chunkSize;
+  }
+
+  /** Returns how many texts were served untranslated because of a timeout or backend error. */
+  public long getFallbackCount() {
+    return fallbackCount.get();
+  }
+
+  /**
+   * Schedules a backend call for one chunk. The returned future completes with the translations,
+   * or with null if the pool is saturated, the call fails, or the deadline passes first; in the
+   * last case the call is cancelled.
+   */
+  private CompletableFuture<List<String>> submit(
+      List<String> chunkTexts, String languageCode, long deadlineNanos) {
+    CompletableFuture<List<String>> result = new CompletableFuture<>();
+
+    Future<?> call;
+    try {
+      call =
+          executor.submit(
+              () -> {
+                long startNanos = System.nanoTime();
+                try {
+                  List<String> translations = translator.translate(chunkTexts, languageCode);
+                  result.complete(translations.size() == chunkTexts.size() ? translations : null);
+                } catch (RuntimeException e) {
+                  result.complete(null);
+                } finally {
+                  CALL_LATENCY.recordSince(startNanos);
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      result.complete(null);
+      return result;
+    }
+
+    long remainingNanos = Math.max(0, deadlineNanos - System.nanoTime());
+    ScheduledFuture<?> timeout =
+        DEADLINE_TIMER.schedule(
+            () -> {
+              if (result.complete(null)) {
+                call.cancel(/* mayInterruptIfRunning = */ true);
+              }
+            },
+            remainingNanos,
+            TimeUnit.NANOSECONDS);
+    result.thenRun(() -> timeout.cancel(/* mayInterruptIfRunning = */ false));
+    return result;
+  }
+
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    private final String namePrefix;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    DaemonThreadFactory(String namePrefix) {
+      this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
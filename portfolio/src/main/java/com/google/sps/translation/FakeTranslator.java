@@ -0,0 +1,64 @@
+package com.google.sps.translation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline {@link Translator} that prefixes each text with its target language, e.g. "[es] hello",
+ * and detects every text as English.
+ * It counts calls and can simulate per-call latency, which makes it usable for testing and
+ * benchmarking the translation path without the Cloud Translation API.
+ */
+public final class FakeTranslator implements Translator {
+
+  private final long latencyMillis;
+  private final AtomicLong callCount = new AtomicLong();
+  private final AtomicLong textCount = new AtomicLong();
+
+  public FakeTranslator() {
+    this(0);
+  }
+
+  public FakeTranslator(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  @Override
+  public List<String> translate(List<String> texts, String languageCode) {
+    callCount.incrementAndGet();
+    textCount.addAndGet(texts.size());
+
+    if (latencyMillis > 0) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(latencyMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while translating", e);
+      }
+    }
+
+    List<String> translatedTexts = new ArrayList<>(texts.size());
+    for (String text : texts) {
+      translatedTexts.add("[" + languageCode + "] " + text);
+    }
+    return translatedTexts;
+  }
+
+  @Override
+  public List<String> detect(List<String> texts) {
+    return new ArrayList<>(Collections.nCopies(texts.size(), "en"));
+  }
+
+  /** Returns the number of backend calls made so far. */
+  public long getCallCount() {
+    return callCount.get();
+  }
+
+  /** Returns the number of texts translated so far, over all calls. */
+  public long getTextCount() {
+    return textCount.get();
+  }
+}
@@ -0,0 +1,195 @@
+package com.google.sps.translation;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded, TTL-expiring LRU cache of translations keyed by (text hash, language code).
+ *
+ * <p>Only a SHA-256 digest of the original text is kept, so the memory held by an entry is the
+ * digest plus the translated text. All access goes through the cache's monitor, which makes it safe
+ * to share between servlet threads.
+ */
+public final class TranslationCache {
+
+  // Rough per-entry cost of the map node, key and value objects on a 64-bit JVM.
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+  private static final int DIGEST_BYTES = 32;
+
+  private final long maxBytes;
+  private final long ttlMillis;
+
+  // Access-ordered, so iteration starts at the least recently used entry.
+  private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long currentBytes = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public TranslationCache(long maxBytes, long ttlMillis) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    if (ttlMillis <= 0) {
+      throw new IllegalArgumentException("ttlMillis must be positive");
+    }
+    this.maxBytes = maxBytes;
+    this.ttlMillis = ttlMillis;
+  }
+
+  /** Returns the cached translation of {@code text} into {@code languageCode}, or null. */
+  public String get(String text, String languageCode) {
+    CacheKey key = new CacheKey(digest(text), languageCode);
+    long now = System.currentTimeMillis();
+
+    synchronized (this) {
+      CacheEntry entry = entries.get(key);
+      if (entry == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+      if (entry.expiresAtMillis <= now) {
+        removeEntry(key, entry);
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      return entry.translatedText;
+    }
+  }
+
+  /**
+   * Returns whether a translation of {@code text} into {@code languageCode} is cached, without
+   * counting a hit or miss.
+   */
+  public boolean contains(String text, String languageCode) {
+    CacheKey key = new CacheKey(digest(text), languageCode);
+    long now = System.currentTimeMillis();
+
+    synchronized (this) {
+      CacheEntry entry = entries.get(key);
+      return entry != null && entry.expiresAtMillis > now;
+    }
+  }
+
+  /**
+   * Stores a translation. Entries that would not fit in the cache on their own are ignored, and the
+   * least recently used entries are evicted until the cache is back under its byte limit.
+   */
+  public void put(String text, String languageCode, String translatedText) {
+    CacheKey key = new CacheKey(digest(text), languageCode);
+    long expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+    CacheEntry entry = new CacheEntry(translatedText, expiresAtMillis, sizeOf(key, translatedText));
+    if (entry.sizeBytes > maxBytes) {
+      return;
+    }
+
+    synchronized (this) {
+      CacheEntry previous = entries.put(key, entry);
+      if (previous != null) {
+        currentBytes -= previous.sizeBytes;
+      }
+      currentBytes += entry.sizeBytes;
+
+      Iterator<Map.Entry<CacheKey, CacheEntry>> eldest = entries.entrySet().iterator();
+      while (currentBytes > maxBytes && eldest.hasNext()) {
+        CacheEntry evicted = eldest.next().getValue();
+        eldest.remove();
+        currentBytes -= evicted.sizeBytes;
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /** Drops every entry. Counters are left untouched. */
+  public synchronized void clear() {
+    entries.clear();
+    currentBytes = 0;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long sizeBytes() {
+    return currentBytes;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  private void removeEntry(CacheKey key, CacheEntry entry) {
+    entries.remove(key);
+    currentBytes -= entry.sizeBytes;
+  }
+
+  private static long sizeOf(CacheKey key, String translatedText) {
+    return ENTRY_OVERHEAD_BYTES
+        + DIGEST_BYTES
+        + 2L * key.languageCode.length()
+        + 2L * translatedText.length();
+  }
+
+  private static byte[] digest(String text) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to ship SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class CacheKey {
+    private final byte[] textDigest;
+    private final String languageCode;
+    private final int hashCode;
+
+    CacheKey(byte[] textDigest, String languageCode) {
+      this.textDigest = textDigest;
+      this.languageCode = languageCode;
+      this.hashCode = 31 * Arrays.hashCode(textDigest) + languageCode.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey that = (CacheKey) other;
+      return languageCode.equals(that.languageCode) && Arrays.equals(textDigest, that.textDigest);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private static final class CacheEntry {
+    private final String translatedText;
+    private final long expiresAtMillis;
+    private final long sizeBytes;
+
+    CacheEntry(String translatedText, long expiresAtMillis, long sizeBytes) {
+      this.translatedText = translatedText;
+      this.expiresAtMillis = expiresAtMillis;
+      this.sizeBytes = sizeBytes;
+    }
+  }
+}
@@ -0,0 +1,236 @@
+package com.google.sps.translation;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.data.BackgroundThreads;
+import com.google.sps.data.Comment;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Translates comments into a fixed set of hot languages when they are written, and stores each
+ * translation on the comment entity under {@link Comment#translatedTextParam}. Reads in those
+ * languages can then be served straight from the entity.
+ *
+ * <p>Comments are also tagged with their detected language under {@link Comment#SOURCE_LANG_PARAM},
+ * and a hot language that matches it is stored as the original text without a backend call. Every
+ * comment updated this way is passed to a listener, so that cached copies can pick up the results.
+ *
+ * <p>Work runs on a single background thread. If its queue is full, the comment is skipped and
+ * picked up by the next {@link #backfill()}. Results are written onto the stored entity in a
+ * transaction, so a comment deleted while it was being translated stays deleted.
+ */
+public final class TranslationMaterializer {
+
+  private static final Logger logger = Logger.getLogger(TranslationMaterializer.class.getName());
+
+  private static final int MAX_QUEUED_TASKS = 1000;
+  private static final int BACKFILL_BATCH_SIZE = 100;
+
+  private final Translator translator;
+  private final Set<String> languageCodes;
+  private final ExecutorService executor;
+  private final Consumer<Entity> listener;
+
+  public TranslationMaterializer(
+      Translator translator, Collection<String> languageCodes, Consumer<Entity> listener) {
+    this.translator = translator;
+    this.listener = listener;
+    this.languageCodes = Collections.unmodifiableSet(new LinkedHashSet<>(languageCodes));
+    this.executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_TASKS),
+            BackgroundThreads.factory("translation-materializer"));
+  }
+
+  /** Returns whether reads in {@code languageCode} can be served from materialized properties. */
+  public boolean isMaterialized(String languageCode) {
+    return languageCodes.contains(languageCode);
+  }
+
+  /** Queues freshly stored comment entities for translation into every hot language. */
+  public void schedule(List<Entity> entities) {
+    try {
+      executor.execute(() -> materialize(entities));
+    } catch (RejectedExecutionException e) {
+      logger.warning("Translation queue is full, leaving " + entities.size() + " for backfill");
+    }
+  }
+
+  /**
+   * Detects the language of every entity whose language has not been detected yet, with one backend
+   * call, and sets the property. The entities are not stored.
+   */
+  private void detectSourceLanguages(List<Entity> entities) {
+    List<Entity> undetected = new ArrayList<>();
+    List<String> texts = new ArrayList<>();
+    for (Entity entity : entities) {
+      if (Comment.getSourceLanguage(entity) == null) {
+        undetected.add(entity);
+        texts.add((String) entity.getProperty(Comment.TEXT_PARAM));
+      }
+    }
+    if (undetected.isEmpty()) {
+      return;
+    }
+
+    List<String> languageCodes = translator.detect(texts);
+    for (int i = 0; i < undetected.size(); i++) {
+      Comment.setSourceLanguage(undetected.get(i), languageCodes.get(i));
+    }
+  }
+
+  /**
+   * Queues a pass over every stored comment that is missing a hot-language translation or an
+   * indexed, detected language.
+   *
+   * @throws RejectedExecutionException if the work queue is full
+   */
+  public void scheduleBackfill() {
+    executor.execute(this::backfill);
+  }
+
+  /**
+   * Translates every stored comment that is missing a hot-language translation, and detects the
+   * language of those whose language is undetected or not indexed yet, in batches of {@code
+   * BACKFILL_BATCH_SIZE} entities. Comments written before the language was indexed are left out of
+   * projected feed pages until this has run.
+   */
+  public void backfill() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    List<Entity> batch = new ArrayList<>();
+
+    for (Entity entity : datastore.prepare(new Query(Comment.ENTITY_NAME_PARAM)).asIterable()) {
+      if (!isFullyMaterialized(entity)
+          || Comment.getSourceLanguage(entity) == null
+          || !Comment.hasIndexedSourceLanguage(entity)) {
+        batch.add(entity);
+      }
+      if (batch.size() == BACKFILL_BATCH_SIZE) {
+        materialize(batch);
+        batch = new ArrayList<>();
+      }
+    }
+    if (!batch.isEmpty()) {
+      materialize(batch);
+    }
+  }
+
+  /**
+   * Detects the entities' languages if needed, translates them into every language they are
+   * missing and stores the results on the comments that still exist.
+   */
+  private void materialize(List<Entity> entities) {
+    try {
+      detectSourceLanguages(entities);
+    } catch (RuntimeException e) {
+      // Without a detected language every hot language is simply translated.
+      logger.log(Level.WARNING, "Failed to detect comment languages", e);
+    }
+
+    try {
+      for (String languageCode : languageCodes) {
+        String property = Comment.translatedTextParam(languageCode);
+        List<Entity> missing = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (Entity entity : entities) {
+          if (entity.hasProperty(property)) {
+            continue;
+          }
+          String text = (String) entity.getProperty(Comment.TEXT_PARAM);
+          if (languageCode.equals(Comment.getSourceLanguage(entity))) {
+            Comment.setDerivedProperty(entity, property, text);
+          } else {
+            missing.add(entity);
+            texts.add(text);
+          }
+        }
+        if (missing.isEmpty()) {
+          continue;
+        }
+
+        List<String> translatedTexts = translator.translate(texts, languageCode);
+        for (int i = 0; i < missing.size(); i++) {
+          Comment.setDerivedProperty(missing.get(i), property, translatedTexts.get(i));
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Failed to materialize translations", e);
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (Entity entity : entities) {
+      try {
+        storeDerivedProperties(datastore, entity);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Failed to store translations of " + entity.getKey(), e);
+      }
+    }
+  }
+
+  /**
+   * Copies the detected language and translations from {@code entity} onto the stored comment with
+   * its key, leaving every other property as stored, and passes the result to the listener. Does
+   * nothing if the comment no longer exists. A language that is still undetected is stored as
+   * {@link Comment#UNDETECTED_LANG}, unless one was detected meanwhile.
+   */
+  private void storeDerivedProperties(DatastoreService datastore, Entity entity) {
+    Transaction transaction = datastore.beginTransaction();
+    Entity stored;
+    try {
+      try {
+        stored = datastore.get(transaction, entity.getKey());
+      } catch (EntityNotFoundException e) {
+        return;
+      }
+
+      String sourceLanguage = Comment.getSourceLanguage(entity);
+      Comment.setSourceLanguage(
+          stored, sourceLanguage == null ? Comment.getSourceLanguage(stored) : sourceLanguage);
+      for (String languageCode : languageCodes) {
+        String property = Comment.translatedTextParam(languageCode);
+        String value = Comment.getDerivedProperty(entity, property);
+        if (value != null) {
+          Comment.setDerivedProperty(stored, property, value);
+        }
+      }
+      datastore.put(transaction, stored);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+    listener.accept(stored);
+  }
+
+  private boolean isFullyMaterialized(Entity entity) {
+    for (String languageCode : languageCodes) {
+      if (!entity.hasProperty(Comment.translatedTextParam(languageCode))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
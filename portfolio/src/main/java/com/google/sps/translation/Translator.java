@@ -0,0 +1,19 @@
+package com.google.sps.translation;
+
+import java.util.List;
+
+/** A backend that translates text, such as the Cloud Translation API. */
+public interface Translator {
+
+  /**
+   * Translates every text into {@code languageCode}. The returned list has one translation per
+   * input text, in the same order.
+   */
+  List<String> translate(List<String> texts, String languageCode);
+
+  /**
+   * Detects the language of every text. The returned list has one language code per input text, in
+   * the same order.
+   */
+  List<String> detect(List<String> texts);
+}
@@ -37,26 +37,98 @@ function addRandomFact() {
   funFactContainer.style.backgroundColor = 'whitesmoke';
 }
 
+// Cursor for the next page of comments, or null once every comment has been loaded.
+let nextCommentCursor = null;
+
 function getComments() {
+  fetchComments(null);
+}
+
+const COMMENT_POLL_INTERVAL_MILLIS = 5000;
+
+// Identifies the current poll for new comments; older polls stop once it changes.
+let commentPollId = 0;
+
+/**
+ * Polls for comments posted after {@code sinceMillis} and shows them at the top of the list, in
+ * the selected language. Replaces any earlier poll.
+ */
+function subscribeToComments(sinceMillis) {
+  const languageSelect = document.getElementById('language-select');
+  const language = languageSelect.options[languageSelect.selectedIndex].value;
+  pollForComments(++commentPollId, language, sinceMillis);
+}
+
+function pollForComments(pollId, language, sinceMillis) {
+  fetch('/data/updates?lang=' + language + '&since=' + sinceMillis).then((response) => {
+    if (!response.ok) {
+      throw new Error('Comment poll failed with status ' + response.status);
+    }
+    return response.json();
+  }).then((update) => {
+    if (pollId !== commentPollId) {
+      return;
+    }
+    const commentContainer = document.getElementById('comment-container');
+    update.comments.forEach((comment) => {
+      const node = createCommentNode(comment, commentContainer.childElementCount);
+      commentContainer.insertBefore(node, commentContainer.firstChild);
+    });
+    setTimeout(
+        () => pollForComments(pollId, language, update.since), COMMENT_POLL_INTERVAL_MILLIS);
+  }).catch((error) => {
+    console.error(error);
+    if (pollId === commentPollId) {
+      setTimeout(
+          () => pollForComments(pollId, language, sinceMillis), COMMENT_POLL_INTERVAL_MILLIS);
+    }
+  });
+}
+
+function loadMoreComments() {
+  if (nextCommentCursor) {
+    fetchComments(nextCommentCursor);
+  }
+}
+
+/**
+ * Fetches a page of comments. Without a cursor the list is replaced with the newest comments,
+ * otherwise the page after the cursor is appended to it.
+ */
+function fetchComments(cursor) {
   const selectElement = document.getElementById('limit-select');
   const commentLimit = selectElement.options[selectElement.selectedIndex].value;
   const languageSelect = document.getElementById('language-select');
   const language = languageSelect.options[languageSelect.selectedIndex].value;
-  fetch('/data?limit=' + commentLimit + '&lang=' + language).then(
-      response => response.json()).then((comments) => {
-        clearComments();
-        comments.forEach(addComment);
-      });
+  let url = '/data?limit=' + commentLimit + '&lang=' + language;
+  if (cursor) {
+    url += '&cursor=' + encodeURIComponent(cursor);
+  }
+  fetch(url).then(response => response.json()).then((page) => {
+    if (!cursor) {
+      clearComments();
+      // Poll for whatever is newer than the newest comment shown.
+      subscribeToComments(page.comments.length > 0 ? page.comments[0].timestampMillis : 0);
+    }
+    page.comments.forEach(addComment);
+    nextCommentCursor = page.nextCursor || null;
+    document.getElementById('load-more-btn').style.display =
+        nextCommentCursor ? 'inline-block' : 'none';
+  });
 }
 
-function addComment(comment, index) {
+function addComment(comment) {
   const commentContainer = document.getElementById('comment-container');
+  commentContainer.appendChild(createCommentNode(comment, commentContainer.childElementCount));
+}
+
+function createCommentNode(comment, index) {
   const node = document.createElement('li');
   node.setAttribute('class', 'comment-node');
   node.setAttribute('id', 'comment' + index);
   const textNode = document.createTextNode(comment.text);
   node.appendChild(textNode);
-  commentContainer.appendChild(node);
+  return node;
 }
 
 function clearComments() {
@@ -64,8 +136,47 @@ function clearComments() {
   commentContainer.innerHTML = '';
 }
 
+// Consecutive failed polls after which a delete job is given up on.
+const MAX_DELETE_POLL_FAILURES = 3;
+
 function deleteComments() {
-  fetch('/delete-data', {method: 'POST'}).then(() => getComments());
+  fetch('/delete-data', {method: 'POST'}).then(readDeleteJob).then(
+      job => waitForDeleteJob(job.jobId, 0)).catch((error) => {
+        console.error(error);
+        getComments();
+      });
+}
+
+/**
+ * Polls a bulk delete job until it finishes, then reloads the comments. A poll that fails is
+ * retried, up to MAX_DELETE_POLL_FAILURES times in a row, after which the comments are reloaded
+ * as they are.
+ */
+function waitForDeleteJob(jobId, failures) {
+  fetch('/delete-data?job=' + encodeURIComponent(jobId)).then(readDeleteJob).then((job) => {
+    if (job.state === 'RUNNING') {
+      setTimeout(() => waitForDeleteJob(jobId, 0), 1000);
+    } else {
+      getComments();
+    }
+  }).catch((error) => {
+    console.error(error);
+    if (failures + 1 < MAX_DELETE_POLL_FAILURES) {
+      setTimeout(() => waitForDeleteJob(jobId, failures + 1), 1000);
+    } else {
+      getComments();
+    }
+  });
+}
+
+/**
+ * Returns the delete job in a response, or rejects if the request did not succeed.
+ */
+function readDeleteJob(response) {
+  if (!response.ok) {
+    throw new Error('Delete job request failed with status ' + response.status);
+  }
+  return response.json();
 }
 
 function createMap() {
@@ -0,0 +1,163 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the hand-written encoding against protobuf-java, using the messages in its doc. */
+@RunWith(JUnit4.class)
+public final class CommentProtoEncoderTest {
+
+  private static Descriptor commentType;
+  private static Descriptor pageType;
+
+  @BeforeClass
+  public static void buildDescriptors() throws DescriptorValidationException {
+    DescriptorProto comment =
+        DescriptorProto.newBuilder()
+            .setName("Comment")
+            .addField(fieldProto("text", 1, FieldDescriptorProto.Type.TYPE_STRING, null))
+            .addField(fieldProto("timestamp_millis", 2, FieldDescriptorProto.Type.TYPE_INT64, null))
+            .build();
+    DescriptorProto page =
+        DescriptorProto.newBuilder()
+            .setName("CommentPage")
+            .addField(
+                fieldProto("comments", 1, FieldDescriptorProto.Type.TYPE_MESSAGE, "Comment")
+                    .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED))
+            .addField(fieldProto("next_cursor", 2, FieldDescriptorProto.Type.TYPE_STRING, null))
+            .build();
+    FileDescriptorProto file =
+        FileDescriptorProto.newBuilder()
+            .setName("comment.proto")
+            .setSyntax("proto3")
+            .addMessageType(comment)
+            .addMessageType(page)
+            .build();
+
+    FileDescriptor fileDescriptor = FileDescriptor.buildFrom(file, new FileDescriptor[0]);
+    commentType = fileDescriptor.findMessageTypeByName("Comment");
+    pageType = fileDescriptor.findMessageTypeByName("CommentPage");
+  }
+
+  @Test
+  public void emptyLastPageIsEmptyMessage() throws InvalidProtocolBufferException {
+    byte[] encoded = CommentProtoEncoder.encodePage(new String[0], new long[0], null);
+
+    Assert.assertEquals(0, encoded.length);
+    Assert.assertEquals(0, parsePage(encoded).getRepeatedFieldCount(field(pageType, "comments")));
+  }
+
+  @Test
+  public void commentsRoundTrip() throws InvalidProtocolBufferException {
+    String[] texts = {"hello", "", "ünïcödé ✓ 😀"};
+    long[] timestampsMillis = {1577880000000L, 0, 1};
+
+    DynamicMessage page =
+        parsePage(CommentProtoEncoder.encodePage(texts, timestampsMillis, "next"));
+
+    FieldDescriptor comments = field(pageType, "comments");
+    Assert.assertEquals(texts.length, page.getRepeatedFieldCount(comments));
+    for (int i = 0; i < texts.length; i++) {
+      DynamicMessage comment = (DynamicMessage) page.getRepeatedField(comments, i);
+      Assert.assertEquals(texts[i], comment.getField(field(commentType, "text")));
+      Assert.assertEquals(
+          timestampsMillis[i], comment.getField(field(commentType, "timestamp_millis")));
+    }
+    Assert.assertEquals("next", page.getField(field(pageType, "next_cursor")));
+  }
+
+  @Test
+  public void lastPageHasNoCursor() throws InvalidProtocolBufferException {
+    DynamicMessage page =
+        parsePage(CommentProtoEncoder.encodePage(new String[] {"a"}, new long[] {1}, null));
+
+    Assert.assertFalse(page.hasField(field(pageType, "next_cursor")));
+  }
+
+  @Test
+  public void longTextAndLargeTimestampUseMultiByteVarints() throws InvalidProtocolBufferException {
+    StringBuilder longText = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      longText.append((char) ('a' + i % 26));
+    }
+    String[] texts = {longText.toString()};
+    long[] timestampsMillis = {Long.MAX_VALUE};
+
+    DynamicMessage page = parsePage(CommentProtoEncoder.encodePage(texts, timestampsMillis, null));
+
+    DynamicMessage comment = (DynamicMessage) page.getRepeatedField(field(pageType, "comments"), 0);
+    Assert.assertEquals(texts[0], comment.getField(field(commentType, "text")));
+    Assert.assertEquals(Long.MAX_VALUE, comment.getField(field(commentType, "timestamp_millis")));
+  }
+
+  @Test
+  public void matchesProtobufEncodingByteForByte() {
+    String[] texts = {"first", "second"};
+    long[] timestampsMillis = {1577880000000L, 1577880000001L};
+
+    DynamicMessage.Builder expected = DynamicMessage.newBuilder(pageType);
+    for (int i = 0; i < texts.length; i++) {
+      expected.addRepeatedField(
+          field(pageType, "comments"),
+          DynamicMessage.newBuilder(commentType)
+              .setField(field(commentType, "text"), texts[i])
+              .setField(field(commentType, "timestamp_millis"), timestampsMillis[i])
+              .build());
+    }
+    expected.setField(field(pageType, "next_cursor"), "cursor");
+
+    Assert.assertArrayEquals(
+        expected.build().toByteArray(),
+        CommentProtoEncoder.encodePage(texts, timestampsMillis, "cursor"));
+  }
+
+  private static DynamicMessage parsePage(byte[] encoded) throws InvalidProtocolBufferException {
+    DynamicMessage page = DynamicMessage.parseFrom(pageType, encoded);
+    Assert.assertTrue(page.getUnknownFields().asMap().isEmpty());
+    return page;
+  }
+
+  private static FieldDescriptorProto.Builder fieldProto(
+      String name, int number, FieldDescriptorProto.Type type, String typeName) {
+    FieldDescriptorProto.Builder field =
+        FieldDescriptorProto.newBuilder()
+            .setName(name)
+            .setNumber(number)
+            .setType(type)
+            .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL);
+    if (typeName != null) {
+      field.setTypeName(typeName);
+    }
+    return field;
+  }
+
+  private static FieldDescriptor field(Descriptor type, String name) {
+    return type.findFieldByName(name);
+  }
+}
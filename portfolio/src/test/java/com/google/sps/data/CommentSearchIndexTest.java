@@ -0,0 +1,173 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CommentSearchIndexTest {
+
+  private static final int NO_LIMIT = Integer.MAX_VALUE;
+
+  private CommentSearchIndex index;
+
+  @Before
+  public void setUp() {
+    FakeApiEnvironment.install();
+    index = new CommentSearchIndex();
+  }
+
+  @After
+  public void tearDown() {
+    FakeApiEnvironment.uninstall();
+  }
+
+  @Test
+  public void returnsMatchesNewestFirst() {
+    index.add(key(1), "hello world", 100);
+    index.add(key(2), "hello there", 300);
+    index.add(key(3), "goodbye world", 200);
+
+    Assert.assertEquals(Arrays.asList(key(2), key(1)), index.search("hello", NO_LIMIT));
+  }
+
+  @Test
+  public void ordersByTimestampEvenIfAddedOutOfOrder() {
+    index.add(key(1), "news", 300);
+    index.add(key(2), "news", 100);
+    index.add(key(3), "news", 200);
+
+    Assert.assertEquals(Arrays.asList(key(1), key(3), key(2)), index.search("news", NO_LIMIT));
+  }
+
+  @Test
+  public void requiresEveryTerm() {
+    index.add(key(1), "hello world", 100);
+    index.add(key(2), "hello there", 200);
+
+    Assert.assertEquals(Arrays.asList(key(1)), index.search("world hello", NO_LIMIT));
+    Assert.assertEquals(Collections.emptyList(), index.search("hello missing", NO_LIMIT));
+  }
+
+  @Test
+  public void ignoresCaseAndPunctuation() {
+    index.add(key(1), "Hello, World!", 100);
+
+    Assert.assertEquals(Arrays.asList(key(1)), index.search("HELLO world.", NO_LIMIT));
+  }
+
+  @Test
+  public void prefixMatchesEveryExpansion() {
+    index.add(key(1), "testing", 100);
+    index.add(key(2), "tested", 200);
+    index.add(key(3), "toast", 300);
+
+    Assert.assertEquals(Arrays.asList(key(2), key(1)), index.search("test*", NO_LIMIT));
+  }
+
+  @Test
+  public void prefixListsNewestFirstAcrossExpansions() {
+    // Each comment matches a different expansion, so ranking must merge their posting lists.
+    for (int i = 0; i < 50; i++) {
+      index.add(key(i), "term" + i, i);
+    }
+
+    Assert.assertEquals(Arrays.asList(key(49), key(48)), index.search("term*", 2));
+  }
+
+  @Test
+  public void commentMatchingSeveralExpansionsIsReturnedOnce() {
+    index.add(key(1), "test tests tested", 100);
+
+    Assert.assertEquals(Arrays.asList(key(1)), index.search("test*", NO_LIMIT));
+  }
+
+  @Test
+  public void stopsAtLimit() {
+    for (int i = 0; i < 10; i++) {
+      index.add(key(i), "common", i);
+    }
+
+    Assert.assertEquals(Arrays.asList(key(9), key(8), key(7)), index.search("common", 3));
+  }
+
+  @Test
+  public void emptyQueryMatchesNothing() {
+    index.add(key(1), "hello", 100);
+
+    Assert.assertEquals(Collections.emptyList(), index.search("   ", NO_LIMIT));
+  }
+
+  @Test
+  public void addingSameKeyTwiceIndexesItOnce() {
+    index.add(key(1), "hello", 100);
+    index.add(key(1), "hello again", 100);
+
+    Assert.assertEquals(1, index.size());
+    Assert.assertEquals(Collections.emptyList(), index.search("again", NO_LIMIT));
+  }
+
+  @Test
+  public void removedCommentIsNotReturned() {
+    index.add(key(1), "hello", 100);
+    index.add(key(2), "hello", 200);
+
+    index.remove(key(2));
+
+    Assert.assertEquals(Arrays.asList(key(1)), index.search("hello", NO_LIMIT));
+    Assert.assertEquals(1, index.size());
+  }
+
+  @Test
+  public void removeBeforeAddKeepsCommentOut() {
+    index.remove(key(1));
+    index.add(key(1), "hello", 100);
+
+    Assert.assertEquals(Collections.emptyList(), index.search("hello", NO_LIMIT));
+  }
+
+  @Test
+  public void searchIsUnchangedByCompaction() {
+    for (int i = 0; i < 3000; i++) {
+      index.add(key(i), i % 2 == 0 ? "even number" : "odd number", i);
+    }
+
+    // Removing more than half of the comments compacts the index along the way.
+    for (int i = 0; i < 2000; i++) {
+      index.remove(key(i));
+    }
+
+    Assert.assertEquals(1000, index.size());
+    List<Key> evens = index.search("even", NO_LIMIT);
+    Assert.assertEquals(500, evens.size());
+    Assert.assertEquals(key(2998), evens.get(0));
+    Assert.assertEquals(key(2000), evens.get(evens.size() - 1));
+    Assert.assertEquals(Arrays.asList(key(2999), key(2998)), index.search("num*", 2));
+  }
+
+  private static Key key(long id) {
+    return KeyFactory.createKey(Comment.ENTITY_NAME_PARAM, id + 1);
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.apphosting.api.ApiProxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal App Engine API environment for tests that build Datastore keys, which need an app id.
+ * Nothing here can make an API call; tests that use it must not touch Datastore itself.
+ */
+final class FakeApiEnvironment implements ApiProxy.Environment {
+
+  private final Map<String, Object> attributes = new HashMap<>();
+
+  /** Registers a fake environment for the calling thread. */
+  static void install() {
+    ApiProxy.setEnvironmentForCurrentThread(new FakeApiEnvironment());
+  }
+
+  static void uninstall() {
+    ApiProxy.clearEnvironmentForCurrentThread();
+  }
+
+  @Override
+  public String getAppId() {
+    return "test-app";
+  }
+
+  @Override
+  public String getModuleId() {
+    return "default";
+  }
+
+  @Override
+  public String getVersionId() {
+    return "1";
+  }
+
+  @Override
+  public String getEmail() {
+    return null;
+  }
+
+  @Override
+  public boolean isLoggedIn() {
+    return false;
+  }
+
+  @Override
+  public boolean isAdmin() {
+    return false;
+  }
+
+  @Override
+  public String getAuthDomain() {
+    return null;
+  }
+
+  @Override
+  public String getRequestNamespace() {
+    return "";
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    return attributes;
+  }
+
+  @Override
+  public long getRemainingMillis() {
+    return Long.MAX_VALUE;
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Pages through a feed stored in the local Datastore with the query that {@code /data} runs, to
+ * check that a page costs the same however deep its cursor is.
+ */
+@RunWith(JUnit4.class)
+public final class FeedIteratorBenchmarkTest {
+
+  private static final Logger logger = Logger.getLogger(FeedIteratorBenchmarkTest.class.getName());
+
+  private static final int COMMENT_COUNT = 3000;
+  // Comments per timestamp, so that ties straddle most page boundaries.
+  private static final int TIE_SIZE = 7;
+  private static final int PAGE_SIZE = 20;
+  private static final int SAMPLE_PAGES = 10;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+
+    List<Entity> comments = new ArrayList<>(COMMENT_COUNT);
+    for (int i = 0; i < COMMENT_COUNT; i++) {
+      Entity entity = new Entity(Comment.ENTITY_NAME_PARAM);
+      entity.setProperty(Comment.TEXT_PARAM, "comment " + i);
+      entity.setProperty(Comment.TIME_PARAM, (long) (i / TIE_SIZE));
+      comments.add(entity);
+    }
+    datastore.put(comments);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void pageCostDoesNotGrowWithCursorDepth() {
+    Set<Key> seen = new HashSet<>();
+    List<Long> pageNanos = new ArrayList<>();
+    int maxReadsPerPage = 0;
+
+    PageCursor cursor = null;
+    while (true) {
+      long startNanos = System.nanoTime();
+      CountingIterator source = new CountingIterator(queryFeed(cursor));
+      FeedIterator feed = new FeedIterator(source, cursor);
+      // Like /data, read one comment past the page to learn whether there is a next page.
+      List<Entity> page = new ArrayList<>(PAGE_SIZE + 1);
+      while (page.size() <= PAGE_SIZE && feed.hasNext()) {
+        page.add(feed.next());
+      }
+      pageNanos.add(System.nanoTime() - startNanos);
+      maxReadsPerPage = Math.max(maxReadsPerPage, source.count);
+
+      for (Entity entity : page.subList(0, Math.min(PAGE_SIZE, page.size()))) {
+        Assert.assertTrue("Repeated " + entity.getKey(), seen.add(entity.getKey()));
+      }
+      if (page.size() <= PAGE_SIZE) {
+        break;
+      }
+      cursor = PageCursor.fromEntity(page.get(PAGE_SIZE - 1));
+    }
+
+    long shallowMillis = averageMillis(pageNanos.subList(0, SAMPLE_PAGES));
+    long deepMillis =
+        averageMillis(pageNanos.subList(pageNanos.size() - SAMPLE_PAGES, pageNanos.size()));
+    logger.info(
+        pageNanos.size()
+            + " pages: first pages took "
+            + shallowMillis
+            + " ms, last pages "
+            + deepMillis
+            + " ms, at most "
+            + maxReadsPerPage
+            + " comments read per page");
+
+    Assert.assertEquals(COMMENT_COUNT, seen.size());
+    // Whatever its depth, a page reads itself and the comment after it, the tie it starts in, the
+    // rest of the tie it ends in and one comment to find where that tie ends.
+    Assert.assertTrue(
+        "Read " + maxReadsPerPage + " comments for one page",
+        maxReadsPerPage <= PAGE_SIZE + 1 + TIE_SIZE + (TIE_SIZE - 1) + 1);
+  }
+
+  /** Runs the feed query of {@code /data}: newest first, from the cursor's timestamp on. */
+  private Iterator<Entity> queryFeed(PageCursor cursor) {
+    Query query =
+        new Query(Comment.ENTITY_NAME_PARAM).addSort(Comment.TIME_PARAM, SortDirection.DESCENDING);
+    if (cursor != null) {
+      query.setFilter(
+          new FilterPredicate(
+              Comment.TIME_PARAM, FilterOperator.LESS_THAN_OR_EQUAL, cursor.getTimestampMillis()));
+    }
+    return datastore.prepare(query).asIterator(FetchOptions.Builder.withChunkSize(PAGE_SIZE + 1));
+  }
+
+  private static long averageMillis(List<Long> nanos) {
+    long sum = 0;
+    for (long value : nanos) {
+      sum += value;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(sum / nanos.size());
+  }
+
+  /** Counts the entities read from a query. */
+  private static final class CountingIterator implements Iterator<Entity> {
+    private final Iterator<Entity> source;
+    private int count = 0;
+
+    CountingIterator(Iterator<Entity> source) {
+      this.source = source;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return source.hasNext();
+    }
+
+    @Override
+    public Entity next() {
+      count++;
+      return source.next();
+    }
+  }
+}
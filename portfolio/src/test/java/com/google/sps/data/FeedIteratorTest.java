@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class FeedIteratorTest {
+
+  @Before
+  public void setUp() {
+    FakeApiEnvironment.install();
+  }
+
+  @After
+  public void tearDown() {
+    FakeApiEnvironment.uninstall();
+  }
+
+  @Test
+  public void sortsTiesByKeyDescendingWhateverTheSourceOrder() {
+    List<Entity> source =
+        Arrays.asList(comment(1, 300), comment(2, 200), comment(4, 200), comment(3, 200));
+
+    Assert.assertEquals(Arrays.asList(key(1), key(4), key(3), key(2)), readKeys(source, null));
+  }
+
+  @Test
+  public void tieStraddlingPageBoundaryIsSplitWithoutGapsOrRepeats() {
+    // Stored oldest key first within the tie, as an index on (timestampMillis, text) might return.
+    List<Entity> feed =
+        Arrays.asList(
+            comment(1, 300),
+            comment(2, 200),
+            comment(3, 200),
+            comment(4, 200),
+            comment(5, 200),
+            comment(6, 100));
+    int pageSize = 3;
+
+    List<Entity> firstPage = readPage(feed, null, pageSize);
+    PageCursor cursor = PageCursor.fromEntity(firstPage.get(pageSize - 1));
+    List<Entity> secondPage = readPage(atOrBefore(feed, cursor), cursor, pageSize);
+
+    Assert.assertEquals(Arrays.asList(key(1), key(5), key(4)), keysOf(firstPage));
+    Assert.assertEquals(Arrays.asList(key(3), key(2), key(6)), keysOf(secondPage));
+  }
+
+  @Test
+  public void cursorAtEndOfTieSkipsWholeTie() {
+    List<Entity> feed = Arrays.asList(comment(1, 200), comment(2, 200), comment(3, 100));
+    PageCursor cursor = new PageCursor(200, key(1));
+
+    Assert.assertEquals(Arrays.asList(key(3)), readKeys(atOrBefore(feed, cursor), cursor));
+  }
+
+  @Test
+  public void cursorAtLastCommentLeavesNothing() {
+    List<Entity> feed = Arrays.asList(comment(1, 200), comment(2, 100));
+    PageCursor cursor = new PageCursor(100, key(2));
+
+    Assert.assertEquals(Collections.emptyList(), readKeys(atOrBefore(feed, cursor), cursor));
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void nextPastEndThrows() {
+    FeedIterator iterator = new FeedIterator(Collections.<Entity>emptyIterator(), null);
+
+    iterator.next();
+  }
+
+  /** Returns the comments of {@code feed} that the Datastore query for {@code cursor} returns. */
+  private static List<Entity> atOrBefore(List<Entity> feed, PageCursor cursor) {
+    List<Entity> result = new ArrayList<>();
+    for (Entity entity : feed) {
+      if ((long) entity.getProperty(Comment.TIME_PARAM) <= cursor.getTimestampMillis()) {
+        result.add(entity);
+      }
+    }
+    return result;
+  }
+
+  private static List<Entity> readPage(List<Entity> source, PageCursor cursor, int pageSize) {
+    List<Entity> page = new ArrayList<>();
+    Iterator<Entity> iterator = new FeedIterator(source.iterator(), cursor);
+    while (page.size() < pageSize && iterator.hasNext()) {
+      page.add(iterator.next());
+    }
+    return page;
+  }
+
+  private static List<Key> readKeys(List<Entity> source, PageCursor cursor) {
+    return keysOf(readPage(source, cursor, Integer.MAX_VALUE));
+  }
+
+  private static List<Key> keysOf(List<Entity> entities) {
+    List<Key> keys = new ArrayList<>();
+    for (Entity entity : entities) {
+      keys.add(entity.getKey());
+    }
+    return keys;
+  }
+
+  private static Key key(long id) {
+    return KeyFactory.createKey(Comment.ENTITY_NAME_PARAM, id);
+  }
+
+  private static Entity comment(long id, long timestampMillis) {
+    Entity entity = new Entity(key(id));
+    entity.setProperty(Comment.TIME_PARAM, timestampMillis);
+    return entity;
+  }
+}
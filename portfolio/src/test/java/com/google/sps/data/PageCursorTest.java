@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class PageCursorTest {
+
+  private static final long TIME_NOON = 1577880000000L;
+
+  @Before
+  public void setUp() {
+    FakeApiEnvironment.install();
+  }
+
+  @After
+  public void tearDown() {
+    FakeApiEnvironment.uninstall();
+  }
+
+  @Test
+  public void webSafeStringRoundTrips() {
+    PageCursor cursor = new PageCursor(TIME_NOON, commentKey(42));
+
+    String webSafe = cursor.toWebSafeString();
+    PageCursor parsed = PageCursor.fromWebSafeString(webSafe);
+
+    Assert.assertTrue(webSafe.matches("[A-Za-z0-9_-]+"));
+    Assert.assertEquals(TIME_NOON, parsed.getTimestampMillis());
+    Assert.assertEquals(commentKey(42), parsed.getKey());
+  }
+
+  @Test
+  public void fromEntityUsesTimestampAndKey() {
+    PageCursor cursor = PageCursor.fromEntity(comment(7, TIME_NOON));
+
+    Assert.assertEquals(TIME_NOON, cursor.getTimestampMillis());
+    Assert.assertEquals(commentKey(7), cursor.getKey());
+  }
+
+  @Test
+  public void olderCommentIsAfterCursor() {
+    PageCursor cursor = new PageCursor(TIME_NOON, commentKey(5));
+
+    Assert.assertTrue(cursor.isBefore(comment(9, TIME_NOON - 1)));
+    Assert.assertFalse(cursor.isBefore(comment(1, TIME_NOON + 1)));
+  }
+
+  @Test
+  public void sameTimestampIsOrderedByKeyDescending() {
+    PageCursor cursor = new PageCursor(TIME_NOON, commentKey(5));
+
+    Assert.assertTrue(cursor.isBefore(comment(4, TIME_NOON)));
+    Assert.assertFalse(cursor.isBefore(comment(6, TIME_NOON)));
+  }
+
+  @Test
+  public void cursorIsNotBeforeItsOwnComment() {
+    PageCursor cursor = new PageCursor(TIME_NOON, commentKey(5));
+
+    Assert.assertFalse(cursor.isBefore(comment(5, TIME_NOON)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidBase64() {
+    PageCursor.fromWebSafeString("not base64!");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMissingSeparator() {
+    PageCursor.fromWebSafeString("MTIz");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidTimestamp() {
+    String raw = "noon:" + KeyFactory.keyToString(commentKey(1));
+
+    PageCursor.fromWebSafeString(encode(raw));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidKey() {
+    PageCursor.fromWebSafeString(encode(TIME_NOON + ":not-a-key"));
+  }
+
+  private static String encode(String raw) {
+    return Base64.getUrlEncoder().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Key commentKey(long id) {
+    return KeyFactory.createKey(Comment.ENTITY_NAME_PARAM, id);
+  }
+
+  private static Entity comment(long id, long timestampMillis) {
+    Entity entity = new Entity(commentKey(id));
+    entity.setProperty(Comment.TIME_PARAM, timestampMillis);
+    return entity;
+  }
+}
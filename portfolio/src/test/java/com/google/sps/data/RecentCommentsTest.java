@@ -0,0 +1,229 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RecentCommentsTest {
+
+  // One more than the largest page, as in DataServlet.
+  private static final int CAPACITY = 101;
+  private static final long ONE_MINUTE_MILLIS = 60 * 1000;
+
+  private RecentComments recentComments;
+
+  @Before
+  public void setUp() {
+    FakeApiEnvironment.install();
+    recentComments = new RecentComments(CAPACITY, ONE_MINUTE_MILLIS);
+  }
+
+  @After
+  public void tearDown() {
+    FakeApiEnvironment.uninstall();
+  }
+
+  @Test
+  public void emptyCacheAsksForLoad() {
+    Assert.assertNull(recentComments.getNewest(5));
+    Assert.assertNull(recentComments.getVersion());
+  }
+
+  @Test
+  public void pendingCommentIsReadBeforeItIsStored() {
+    load(comment(1, 100));
+
+    recentComments.addPending(comment(2, 200));
+
+    Assert.assertEquals(Arrays.asList(key(2), key(1)), keysOf(recentComments.getNewest(5)));
+  }
+
+  @Test
+  public void pendingCommentIsMergedIntoLaterLoad() {
+    recentComments.addPending(comment(2, 200));
+
+    // The query ran before the comment was stored, so it does not return it.
+    load(comment(1, 100));
+
+    Assert.assertEquals(Arrays.asList(key(2), key(1)), keysOf(recentComments.getNewest(5)));
+  }
+
+  @Test
+  public void storedCommentReplacesItsPendingCopy() {
+    load(comment(1, 100));
+    recentComments.addPending(comment(2, 200));
+
+    recentComments.add(comment(2, 200));
+    load(comment(2, 200), comment(1, 100));
+
+    Assert.assertEquals(Arrays.asList(key(2), key(1)), keysOf(recentComments.getNewest(5)));
+  }
+
+  @Test
+  public void clearKeepsPendingComments() {
+    load(comment(1, 100));
+    recentComments.addPending(comment(2, 200));
+
+    recentComments.clear();
+
+    Assert.assertNull(recentComments.getNewest(5));
+    load();
+    Assert.assertEquals(Arrays.asList(key(2)), keysOf(recentComments.getNewest(5)));
+  }
+
+  @Test
+  public void removedPendingCommentIsNotMerged() {
+    recentComments.addPending(comment(2, 200));
+
+    recentComments.remove(key(2));
+    load(comment(1, 100));
+
+    Assert.assertEquals(Arrays.asList(key(1)), keysOf(recentComments.getNewest(5)));
+  }
+
+  @Test
+  public void loadRacingWithWriteIsDropped() {
+    long generation = recentComments.getGeneration();
+
+    recentComments.addPending(comment(2, 200));
+    recentComments.load(Arrays.asList(comment(1, 100)), generation);
+
+    Assert.assertNull(recentComments.getNewest(5));
+  }
+
+  @Test
+  public void expiredCacheAsksForLoad() throws InterruptedException {
+    recentComments = new RecentComments(CAPACITY, /* ttlMillis = */ 1);
+    load(comment(1, 100));
+
+    Thread.sleep(5);
+
+    Assert.assertNull(recentComments.getNewest(1));
+    Assert.assertNull(recentComments.getVersion());
+  }
+
+  @Test
+  public void fullPageAtCapacityIsServedWithNextPageMarker() {
+    // More comments exist than the cache holds, so it is loaded with the newest CAPACITY of them.
+    load(comments(CAPACITY));
+
+    List<Entity> newest = recentComments.getNewest(CAPACITY);
+
+    Assert.assertEquals(CAPACITY, newest.size());
+    Assert.assertEquals(key(CAPACITY), newest.get(0).getKey());
+    Assert.assertEquals(key(1), newest.get(CAPACITY - 1).getKey());
+    Assert.assertTrue(recentComments.getVersion().endsWith("+"));
+  }
+
+  @Test
+  public void insertAtCapacityDropsOldestAndStaysAnswerable() {
+    load(comments(CAPACITY));
+
+    recentComments.addPending(comment(CAPACITY + 1, CAPACITY + 1));
+
+    List<Entity> newest = recentComments.getNewest(CAPACITY);
+    Assert.assertEquals(CAPACITY, newest.size());
+    Assert.assertEquals(key(CAPACITY + 1), newest.get(0).getKey());
+    Assert.assertEquals(key(2), newest.get(CAPACITY - 1).getKey());
+  }
+
+  @Test
+  public void completeFeedAnswersLargerPages() {
+    load(comment(1, 100), comment(2, 200));
+
+    Assert.assertEquals(2, recentComments.getNewest(CAPACITY).size());
+    Assert.assertFalse(recentComments.getVersion().endsWith("+"));
+  }
+
+  @Test
+  public void removingFromFullCacheAsksForLoad() {
+    load(comments(CAPACITY));
+
+    recentComments.remove(key(CAPACITY));
+
+    // The comment that now belongs at the end of the cache was never read.
+    Assert.assertNull(recentComments.getNewest(CAPACITY));
+  }
+
+  @Test
+  public void versionChangesWithNewestComment() {
+    load(comment(1, 100));
+    String before = recentComments.getVersion();
+
+    recentComments.add(comment(2, 200));
+
+    Assert.assertNotEquals(before, recentComments.getVersion());
+  }
+
+  @Test
+  public void updateReplacesCachedCopyInPlace() {
+    load(comment(1, 100), comment(2, 200));
+    Entity detected = comment(1, 100);
+    Comment.setSourceLanguage(detected, "en");
+
+    recentComments.update(detected);
+
+    List<Entity> newest = recentComments.getNewest(2);
+    Assert.assertEquals(Arrays.asList(key(2), key(1)), keysOf(newest));
+    Assert.assertEquals("en", Comment.getSourceLanguage(newest.get(1)));
+  }
+
+  /** Loads {@code entities}, given in any order, as the result of the newest-comments query. */
+  private void load(Entity... entities) {
+    List<Entity> newest = new ArrayList<>(Arrays.asList(entities));
+    Collections.sort(newest, (a, b) -> PageCursor.fromEntity(a).isBefore(b) ? -1 : 1);
+    recentComments.load(newest, recentComments.getGeneration());
+  }
+
+  /** Returns comments 1 to {@code count}, each one millisecond newer than the last. */
+  private static Entity[] comments(int count) {
+    Entity[] entities = new Entity[count];
+    for (int i = 0; i < count; i++) {
+      entities[i] = comment(i + 1, i + 1);
+    }
+    return entities;
+  }
+
+  private static List<Key> keysOf(List<Entity> entities) {
+    List<Key> keys = new ArrayList<>();
+    for (Entity entity : entities) {
+      keys.add(entity.getKey());
+    }
+    return keys;
+  }
+
+  private static Key key(long id) {
+    return KeyFactory.createKey(Comment.ENTITY_NAME_PARAM, id);
+  }
+
+  private static Entity comment(long id, long timestampMillis) {
+    Entity entity = new Entity(key(id));
+    entity.setProperty(Comment.TIME_PARAM, timestampMillis);
+    return entity;
+  }
+}
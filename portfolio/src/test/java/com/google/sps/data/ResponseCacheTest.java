@@ -0,0 +1,162 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ResponseCacheTest {
+
+  private static final String JSON = "application/json";
+  private static final String ETAG = "W/\"v1\"";
+  private static final byte[] BODY = "{\"comments\":[]}".getBytes(StandardCharsets.UTF_8);
+
+  private ResponseCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new ResponseCache(1024 * 1024);
+  }
+
+  @Test
+  public void filledSlotIsServedForMatchingEtag() {
+    cache.reserve(5, "en", JSON, ETAG).fill(BODY);
+
+    ResponseCache.Entry entry = cache.get(5, "en", JSON, ETAG);
+
+    Assert.assertArrayEquals(BODY, entry.getBody());
+    Assert.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void otherEtagMisses() {
+    cache.reserve(5, "en", JSON, ETAG).fill(BODY);
+
+    Assert.assertNull(cache.get(5, "en", JSON, "W/\"v2\""));
+    Assert.assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void viewsAreCachedSeparately() {
+    cache.reserve(5, "en", JSON, ETAG).fill(BODY);
+
+    Assert.assertNull(cache.get(10, "en", JSON, ETAG));
+    Assert.assertNull(cache.get(5, "es", JSON, ETAG));
+    Assert.assertNull(cache.get(5, "en", CommentProtoEncoder.CONTENT_TYPE, ETAG));
+  }
+
+  @Test
+  public void gzipVariantDecompressesToBody() throws IOException {
+    ResponseCache.Entry entry = cache.reserve(5, "en", JSON, ETAG).fill(BODY);
+
+    Assert.assertArrayEquals(BODY, gunzip(entry.getGzippedBody()));
+  }
+
+  @Test
+  public void slotFilledUnderOldGenerationIsNotStored() {
+    ResponseCache.Slot slot = cache.reserve(5, "en", JSON, ETAG);
+
+    cache.invalidate();
+    ResponseCache.Entry entry = slot.fill(BODY);
+
+    // The response is still returned for the request that built it.
+    Assert.assertArrayEquals(BODY, entry.getBody());
+    Assert.assertNull(cache.get(5, "en", JSON, ETAG));
+    Assert.assertEquals(0, cache.sizeBytes());
+  }
+
+  @Test
+  public void invalidateDropsEveryEntry() {
+    cache.reserve(5, "en", JSON, ETAG).fill(BODY);
+
+    cache.invalidate();
+
+    Assert.assertNull(cache.get(5, "en", JSON, ETAG));
+    Assert.assertEquals(0, cache.sizeBytes());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedOnceOverByteLimit() {
+    long entryBytes = sizeOf(BODY);
+    cache = new ResponseCache(2 * entryBytes + entryBytes / 2);
+    cache.reserve(5, "en", JSON, ETAG).fill(BODY);
+    cache.reserve(10, "en", JSON, ETAG).fill(BODY);
+
+    // Reading the first view makes the second the least recently used.
+    cache.get(5, "en", JSON, ETAG);
+    cache.reserve(20, "en", JSON, ETAG).fill(BODY);
+
+    Assert.assertNotNull(cache.get(5, "en", JSON, ETAG));
+    Assert.assertNull(cache.get(10, "en", JSON, ETAG));
+    Assert.assertNotNull(cache.get(20, "en", JSON, ETAG));
+    Assert.assertEquals(2 * entryBytes, cache.sizeBytes());
+  }
+
+  @Test
+  public void refillingViewReplacesItsBytes() {
+    long entryBytes = sizeOf(BODY);
+    cache.reserve(5, "en", JSON, ETAG).fill(BODY);
+
+    cache.reserve(5, "en", JSON, "W/\"v2\"").fill(BODY);
+
+    Assert.assertNull(cache.get(5, "en", JSON, ETAG));
+    Assert.assertNotNull(cache.get(5, "en", JSON, "W/\"v2\""));
+    Assert.assertEquals(entryBytes, cache.sizeBytes());
+  }
+
+  @Test
+  public void entryLargerThanCacheIsNotStored() {
+    cache = new ResponseCache(sizeOf(BODY) - 1);
+
+    cache.reserve(5, "en", JSON, ETAG).fill(BODY);
+
+    Assert.assertNull(cache.get(5, "en", JSON, ETAG));
+    Assert.assertEquals(0, cache.sizeBytes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveMaxBytes() {
+    new ResponseCache(0);
+  }
+
+  /** Returns the bytes an entry for {@code body} takes, in both encodings. */
+  private static long sizeOf(byte[] body) {
+    ResponseCache.Entry entry =
+        new ResponseCache(1024 * 1024).reserve(5, "en", JSON, ETAG).fill(body);
+    return entry.getBody().length + entry.getGzippedBody().length;
+  }
+
+  private static byte[] gunzip(byte[] compressed) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+    return out.toByteArray();
+  }
+}
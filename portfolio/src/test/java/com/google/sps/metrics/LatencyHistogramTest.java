@@ -0,0 +1,126 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.metrics;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LatencyHistogramTest {
+
+  // Sixteen sub-buckets per power of two bound the relative error of a quantile by 1/16.
+  private static final double MAX_RELATIVE_ERROR = 1.0 / 16;
+
+  private static final long ONE_MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private LatencyHistogram histogram;
+
+  @Before
+  public void setUp() {
+    histogram = new LatencyHistogram();
+  }
+
+  @Test
+  public void emptyHistogramReportsZero() {
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    Assert.assertEquals(0, snapshot.getCount());
+    Assert.assertEquals(0, snapshot.getSumNanos());
+    Assert.assertEquals(0, snapshot.getValueAtQuantile(0.5));
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    for (long nanos = 0; nanos < 16; nanos++) {
+      LatencyHistogram single = new LatencyHistogram();
+      single.record(nanos);
+
+      Assert.assertEquals(nanos, single.snapshot().getValueAtQuantile(0.5));
+    }
+  }
+
+  @Test
+  public void quantilesAreWithinBucketError() {
+    // One sample per microsecond from 1 to 1000, so the q quantile is about q * 1000 us.
+    for (long micros = 1; micros <= 1000; micros++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    assertWithinBucketError(TimeUnit.MICROSECONDS.toNanos(500), snapshot.getValueAtQuantile(0.5));
+    assertWithinBucketError(TimeUnit.MICROSECONDS.toNanos(950), snapshot.getValueAtQuantile(0.95));
+    assertWithinBucketError(TimeUnit.MICROSECONDS.toNanos(990), snapshot.getValueAtQuantile(0.99));
+    assertWithinBucketError(TimeUnit.MICROSECONDS.toNanos(1000), snapshot.getValueAtQuantile(1));
+  }
+
+  @Test
+  public void quantileNeverUnderstatesValue() {
+    long nanos = TimeUnit.MILLISECONDS.toNanos(123);
+    histogram.record(nanos);
+
+    Assert.assertTrue(histogram.snapshot().getValueAtQuantile(0.5) >= nanos);
+  }
+
+  @Test
+  public void countsAndSumsEveryRecording() {
+    histogram.record(100);
+    histogram.record(200);
+    histogram.record(300);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    Assert.assertEquals(3, snapshot.getCount());
+    Assert.assertEquals(600, snapshot.getSumNanos());
+  }
+
+  @Test
+  public void negativeValueIsRecordedAsZero() {
+    histogram.record(-5);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    Assert.assertEquals(1, snapshot.getCount());
+    Assert.assertEquals(0, snapshot.getSumNanos());
+    Assert.assertEquals(0, snapshot.getValueAtQuantile(1));
+  }
+
+  @Test
+  public void valuesOverOneMinuteAreClamped() {
+    histogram.record(TimeUnit.HOURS.toNanos(1));
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    Assert.assertEquals(ONE_MINUTE_NANOS, snapshot.getSumNanos());
+    Assert.assertEquals(ONE_MINUTE_NANOS, snapshot.getValueAtQuantile(1));
+  }
+
+  @Test
+  public void snapshotIsNotAffectedByLaterRecordings() {
+    histogram.record(100);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    histogram.record(200);
+
+    Assert.assertEquals(1, snapshot.getCount());
+    Assert.assertEquals(100, snapshot.getSumNanos());
+  }
+
+  private static void assertWithinBucketError(long expected, long actual) {
+    double relativeError = Math.abs(actual - expected) / (double) expected;
+    Assert.assertTrue(
+        "Expected about " + expected + " but was " + actual, relativeError <= MAX_RELATIVE_ERROR);
+  }
+}
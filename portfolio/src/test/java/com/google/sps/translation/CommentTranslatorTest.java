@@ -0,0 +1,214 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.translation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CommentTranslatorTest {
+
+  private static final long ONE_HOUR_MILLIS = 60 * 60 * 1000;
+  private static final long TIMEOUT_MILLIS = 5 * 1000;
+
+  // Plain threads, since the tests run outside App Engine.
+  private static final ThreadFactory THREAD_FACTORY =
+      runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+      };
+
+  private TranslationCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new TranslationCache(1024 * 1024, ONE_HOUR_MILLIS);
+  }
+
+  @Test
+  public void translatesInChunksAndKeepsOrder() {
+    FakeTranslator fakeTranslator = new FakeTranslator();
+    CommentTranslator translator = newTranslator(fakeTranslator, /* chunkSize = */ 3);
+
+    List<String> actual =
+        translator.translate(Arrays.asList("a", "b", "c", "d", "e", "f", "g"), "es");
+    List<String> expected =
+        Arrays.asList("[es] a", "[es] b", "[es] c", "[es] d", "[es] e", "[es] f", "[es] g");
+
+    Assert.assertEquals(expected, actual);
+    Assert.assertEquals(3, fakeTranslator.getCallCount());
+    Assert.assertEquals(7, fakeTranslator.getTextCount());
+  }
+
+  @Test
+  public void sendsOnlyUncachedTextsToBackend() {
+    FakeTranslator fakeTranslator = new FakeTranslator();
+    CommentTranslator translator = newTranslator(fakeTranslator, /* chunkSize = */ 2);
+    cache.put("b", "es", "cached b");
+
+    List<String> actual = translator.translate(Arrays.asList("a", "b", "c"), "es");
+
+    Assert.assertEquals(Arrays.asList("[es] a", "cached b", "[es] c"), actual);
+    Assert.assertEquals(1, fakeTranslator.getCallCount());
+    Assert.assertEquals(2, fakeTranslator.getTextCount());
+  }
+
+  @Test
+  public void cachesTranslationsForLaterCalls() {
+    FakeTranslator fakeTranslator = new FakeTranslator();
+    CommentTranslator translator = newTranslator(fakeTranslator, /* chunkSize = */ 2);
+
+    translator.translate(Arrays.asList("a", "b"), "es");
+    List<String> actual = translator.translate(Arrays.asList("b", "a"), "es");
+
+    Assert.assertEquals(Arrays.asList("[es] b", "[es] a"), actual);
+    Assert.assertEquals(1, fakeTranslator.getCallCount());
+  }
+
+  @Test
+  public void emptyPageMakesNoBackendCall() {
+    FakeTranslator fakeTranslator = new FakeTranslator();
+    CommentTranslator translator = newTranslator(fakeTranslator, /* chunkSize = */ 2);
+
+    List<String> actual = translator.translate(Collections.emptyList(), "es");
+
+    Assert.assertEquals(Collections.emptyList(), actual);
+    Assert.assertEquals(0, fakeTranslator.getCallCount());
+  }
+
+  @Test
+  public void countsBackendCallsForUncachedTextsOnly() {
+    FakeTranslator fakeTranslator = new FakeTranslator();
+    CommentTranslator translator = newTranslator(fakeTranslator, /* chunkSize = */ 2);
+    cache.put("b", "es", "cached b");
+
+    Assert.assertEquals(2, translator.countBackendCalls(Arrays.asList("a", "b", "c", "d"), "es"));
+    Assert.assertEquals(0, translator.countBackendCalls(Arrays.asList("b"), "es"));
+    Assert.assertEquals(0, fakeTranslator.getCallCount());
+  }
+
+  @Test
+  public void slowBackendFallsBackToOriginalTexts() {
+    FakeTranslator slowTranslator = new FakeTranslator(/* latencyMillis = */ 10 * 1000);
+    CommentTranslator translator =
+        new CommentTranslator(
+            slowTranslator, cache, 2, 2, /* timeoutMillis = */ 50, THREAD_FACTORY);
+
+    List<String> actual = translator.translate(Arrays.asList("a", "b", "c"), "es");
+
+    Assert.assertEquals(Arrays.asList("a", "b", "c"), actual);
+    Assert.assertEquals(3, translator.getFallbackCount());
+    Assert.assertNull(cache.get("a", "es"));
+  }
+
+  @Test
+  public void failedChunkFallsBackWithoutAffectingOthers() {
+    Translator failingOnB =
+        new Translator() {
+          @Override
+          public List<String> translate(List<String> texts, String languageCode) {
+            if (texts.contains("b")) {
+              throw new IllegalStateException("Backend error");
+            }
+            return new FakeTranslator().translate(texts, languageCode);
+          }
+
+          @Override
+          public List<String> detect(List<String> texts) {
+            return new FakeTranslator().detect(texts);
+          }
+        };
+    CommentTranslator translator = newTranslator(failingOnB, /* chunkSize = */ 1);
+
+    List<String> actual = translator.translate(Arrays.asList("a", "b", "c"), "es");
+
+    Assert.assertEquals(Arrays.asList("[es] a", "b", "[es] c"), actual);
+    Assert.assertEquals(1, translator.getFallbackCount());
+  }
+
+  @Test
+  public void slowPagesInFlightHoldNoRequestThreads() {
+    // Load test of the shape of GET /data: a small shared pool reads each page, then hands it to
+    // translateAsync. Pages waiting on the slow backend hold none of the pool's threads, so every
+    // page is in flight at once rather than two at a time.
+    int pageCount = 64;
+    int requestThreadCount = 2;
+    long latencyMillis = 200;
+    FakeTranslator slowTranslator = new FakeTranslator(latencyMillis);
+    CommentTranslator translator =
+        new CommentTranslator(
+            slowTranslator,
+            cache,
+            10,
+            /* parallelism = */ pageCount,
+            TIMEOUT_MILLIS,
+            THREAD_FACTORY);
+    ExecutorService requestThreads =
+        Executors.newFixedThreadPool(requestThreadCount, THREAD_FACTORY);
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger peakInFlight = new AtomicInteger();
+
+    long startNanos = System.nanoTime();
+    List<CompletableFuture<List<String>>> pages = new ArrayList<>();
+    for (int i = 0; i < pageCount; i++) {
+      List<String> texts = Arrays.asList("page " + i);
+      pages.add(
+          CompletableFuture.supplyAsync(
+                  () -> {
+                    peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return texts;
+                  },
+                  requestThreads)
+              .thenCompose(page -> translator.translateAsync(page, "es"))
+              .whenComplete((page, error) -> inFlight.decrementAndGet()));
+    }
+    for (int i = 0; i < pageCount; i++) {
+      Assert.assertEquals(Arrays.asList("[es] page " + i), pages.get(i).join());
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    requestThreads.shutdown();
+
+    Assert.assertEquals(pageCount, peakInFlight.get());
+    Assert.assertEquals(pageCount, slowTranslator.getCallCount());
+    Assert.assertEquals(0, translator.getFallbackCount());
+    // Holding a request thread per translation would take pageCount / 2 * 200 ms = 6.4 s.
+    long blockingMillis = pageCount / requestThreadCount * latencyMillis;
+    Assert.assertTrue("Took " + elapsedMillis + " ms", elapsedMillis < blockingMillis / 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveChunkSize() {
+    newTranslator(new FakeTranslator(), /* chunkSize = */ 0);
+  }
+
+  private CommentTranslator newTranslator(Translator translator, int chunkSize) {
+    return new CommentTranslator(
+        translator, cache, chunkSize, /* parallelism = */ 2, TIMEOUT_MILLIS, THREAD_FACTORY);
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.translation;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TranslationCacheTest {
+
+  private static final long ONE_HOUR_MILLIS = 60 * 60 * 1000;
+
+  // Every entry below has a two-letter language code and a four-letter translation, which the cache
+  // accounts as 128 + 32 + 2 * 2 + 2 * 4 bytes.
+  private static final long ENTRY_BYTES = 172;
+
+  @Test
+  public void getReturnsStoredTranslation() {
+    TranslationCache cache = new TranslationCache(1024, ONE_HOUR_MILLIS);
+
+    cache.put("cat", "es", "gato");
+
+    Assert.assertEquals("gato", cache.get("cat", "es"));
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(0, cache.getMissCount());
+  }
+
+  @Test
+  public void translationsAreKeyedByLanguage() {
+    TranslationCache cache = new TranslationCache(1024, ONE_HOUR_MILLIS);
+
+    cache.put("cat", "es", "gato");
+
+    Assert.assertNull(cache.get("cat", "fr"));
+    Assert.assertNull(cache.get("dog", "es"));
+    Assert.assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void putReplacesPreviousTranslation() {
+    TranslationCache cache = new TranslationCache(1024, ONE_HOUR_MILLIS);
+
+    cache.put("cat", "es", "gata");
+    cache.put("cat", "es", "gato");
+
+    Assert.assertEquals("gato", cache.get("cat", "es"));
+    Assert.assertEquals(1, cache.size());
+    Assert.assertEquals(ENTRY_BYTES, cache.sizeBytes());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedEntry() {
+    TranslationCache cache = new TranslationCache(2 * ENTRY_BYTES, ONE_HOUR_MILLIS);
+    cache.put("cat", "es", "gato");
+    cache.put("dog", "es", "perr");
+
+    // Reading "cat" makes "dog" the least recently used entry.
+    cache.get("cat", "es");
+    cache.put("cow", "es", "vaca");
+
+    Assert.assertEquals("gato", cache.get("cat", "es"));
+    Assert.assertNull(cache.get("dog", "es"));
+    Assert.assertEquals("vaca", cache.get("cow", "es"));
+    Assert.assertEquals(1, cache.getEvictionCount());
+    Assert.assertEquals(2 * ENTRY_BYTES, cache.sizeBytes());
+  }
+
+  @Test
+  public void ignoresEntryLargerThanCache() {
+    TranslationCache cache = new TranslationCache(ENTRY_BYTES - 1, ONE_HOUR_MILLIS);
+
+    cache.put("cat", "es", "gato");
+
+    Assert.assertNull(cache.get("cat", "es"));
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public void expiredEntryIsMissAndRemoved() throws InterruptedException {
+    TranslationCache cache = new TranslationCache(1024, 1);
+    cache.put("cat", "es", "gato");
+
+    Thread.sleep(10);
+
+    Assert.assertNull(cache.get("cat", "es"));
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.sizeBytes());
+  }
+
+  @Test
+  public void clearDropsEntriesButKeepsCounters() {
+    TranslationCache cache = new TranslationCache(1024, ONE_HOUR_MILLIS);
+    cache.put("cat", "es", "gato");
+    cache.get("cat", "es");
+
+    cache.clear();
+
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.sizeBytes());
+    Assert.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveSize() {
+    new TranslationCache(0, ONE_HOUR_MILLIS);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveTtl() {
+    new TranslationCache(1024, 0);
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Meeting query engine that keeps each attendee's busy time as a bitset with one bit per minute of
+ * {@link TimeRange#WHOLE_DAY}, i.e. 23 longs. A query ORs the bitsets of the requested attendees
+ * and scans the result for runs of free minutes, skipping whole words at a time, so it costs
+ * O(attendees x 23 words) however many events they have.
+ *
+ * <p>It answers exactly like {@link FindMeetingQuery}: events outside the day are ignored and
+ * events that cross its edges are cut at them. The few requests a bitset cannot express the same
+ * way (zero-minute meetings, or attendees with empty events within the day, which the interval
+ * engine treats as boundaries) are handed to the interval engine.
+ */
+public final class BitsetFindMeetingQuery {
+  private static final int MINUTES = TimeRange.WHOLE_DAY.duration();
+  private static final int WORDS = (MINUTES + Long.SIZE - 1) / Long.SIZE;
+
+  // Reused by every query on the same thread, so that a query allocates only its result.
+  private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[WORDS]);
+
+  private final Map<String, long[]> busyByAttendee = new HashMap<>();
+  private final Set<String> attendeesWithIrregularEvents = new HashSet<>();
+  private final EventIndex eventIndex;
+
+  /** Creates an engine for a snapshot of {@code events}. */
+  public BitsetFindMeetingQuery(Collection<Event> events) {
+    for (Event event : events) {
+      TimeRange when = event.getWhen();
+      if (!FindMeetingQuery.isWithin(when, TimeRange.WHOLE_DAY)) {
+        continue;
+      }
+      for (String attendee : event.getAttendees()) {
+        if (when.duration() > 0) {
+          setRange(busyByAttendee.computeIfAbsent(attendee, key -> new long[WORDS]), when);
+        } else {
+          attendeesWithIrregularEvents.add(attendee);
+        }
+      }
+    }
+    eventIndex = new EventIndex(events);
+  }
+
+  public Collection<TimeRange> query(MeetingRequest request) {
+    long durationMinutes = request.getDuration();
+
+    // If the meeting duration is over 24 hours, then return no available timeRange.
+    if (durationMinutes > MINUTES) {
+      return Collections.emptyList();
+    }
+
+    // If no Attendees are passed in, return a timeRange containing the whole day.
+    if (request.getAttendees().isEmpty() && request.getOptionalAttendees().isEmpty()) {
+      return Arrays.asList(TimeRange.WHOLE_DAY);
+    }
+
+    if (durationMinutes <= 0
+        || hasIrregularEvents(request.getAttendees())
+        || hasIrregularEvents(request.getOptionalAttendees())) {
+      return new FindMeetingQuery().query(eventIndex, request);
+    }
+
+    long[] busy = SCRATCH.get();
+    Arrays.fill(busy, 0L);
+    orInto(busy, request.getAttendees());
+    orInto(busy, request.getOptionalAttendees());
+    List<TimeRange> availableOptionalTimeRanges = findFreeRuns(busy, durationMinutes);
+
+    // Fall back to the mandatory attendees alone, as FindMeetingQuery does.
+    if (availableOptionalTimeRanges.isEmpty() && !request.getAttendees().isEmpty()) {
+      Arrays.fill(busy, 0L);
+      orInto(busy, request.getAttendees());
+      return findFreeRuns(busy, durationMinutes);
+    }
+    return availableOptionalTimeRanges;
+  }
+
+  private boolean hasIrregularEvents(Collection<String> attendees) {
+    for (String attendee : attendees) {
+      if (attendeesWithIrregularEvents.contains(attendee)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void orInto(long[] busy, Collection<String> attendees) {
+    for (String attendee : attendees) {
+      long[] attendeeBusy = busyByAttendee.get(attendee);
+      if (attendeeBusy == null) {
+        continue;
+      }
+      for (int i = 0; i < WORDS; i++) {
+        busy[i] |= attendeeBusy[i];
+      }
+    }
+  }
+
+  /** Returns every maximal run of free minutes that is at least {@code durationMinutes} long. */
+  private static List<TimeRange> findFreeRuns(long[] busy, long durationMinutes) {
+    List<TimeRange> freeRuns = new ArrayList<>();
+    int start = nextFreeMinute(busy, 0);
+    while (start < MINUTES) {
+      int end = nextBusyMinute(busy, start);
+      if (end - start >= durationMinutes) {
+        freeRuns.add(TimeRange.fromStartEnd(start, end, /* inclusive = */ false));
+      }
+      start = nextFreeMinute(busy, end);
+    }
+    return freeRuns;
+  }
+
+  /** Returns the first busy minute at or after {@code from}, or the end of the day. */
+  private static int nextBusyMinute(long[] busy, int from) {
+    if (from >= MINUTES) {
+      return MINUTES;
+    }
+    int index = from / Long.SIZE;
+    long word = busy[index] & (-1L << from);
+    while (word == 0) {
+      if (++index == WORDS) {
+        return MINUTES;
+      }
+      word = busy[index];
+    }
+    return Math.min(index * Long.SIZE + Long.numberOfTrailingZeros(word), MINUTES);
+  }
+
+  /** Returns the first free minute at or after {@code from}, or the end of the day. */
+  private static int nextFreeMinute(long[] busy, int from) {
+    if (from >= MINUTES) {
+      return MINUTES;
+    }
+    int index = from / Long.SIZE;
+    long word = ~busy[index] & (-1L << from);
+    while (word == 0) {
+      if (++index == WORDS) {
+        return MINUTES;
+      }
+      word = ~busy[index];
+    }
+    return Math.min(index * Long.SIZE + Long.numberOfTrailingZeros(word), MINUTES);
+  }
+
+  /** Marks the minutes of {@code range} that lie within the day as busy. */
+  private static void setRange(long[] busy, TimeRange range) {
+    int start = Math.max(range.start(), 0);
+    int end = Math.min(range.end(), MINUTES);
+    int startIndex = start / Long.SIZE;
+    int lastIndex = (end - 1) / Long.SIZE;
+    // Shifts use only the low six bits, so these are the bits from start and up to end - 1.
+    long firstMask = -1L << start;
+    long lastMask = -1L >>> -end;
+    if (startIndex == lastIndex) {
+      busy[startIndex] |= firstMask & lastMask;
+      return;
+    }
+    busy[startIndex] |= firstMask;
+    for (int i = startIndex + 1; i < lastIndex; i++) {
+      busy[i] = -1L;
+    }
+    busy[lastIndex] |= lastMask;
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only index from each attendee to the events they attend, sorted by start time (and longest
+ * first for equal starts). Build it once per calendar snapshot; looking up a set of attendees then
+ * only touches their own events, however large the calendar is.
+ *
+ * <p>Each attendee's events also form an augmented interval tree, so the events within a horizon
+ * are found in O(log n + k) for k matches instead of by scanning all n of that attendee's events.
+ */
+public final class EventIndex {
+  // Every indexed event, sorted. Attendees' events are stored as positions in this array, so
+  // sorting positions sorts events.
+  private final Event[] sortedEvents;
+  private final Map<String, AttendeeEvents> eventsByAttendee = new HashMap<>();
+
+  /** Creates an index of {@code events}, e.g. {@code Arrays.asList(Events.events)}. */
+  public EventIndex(Collection<Event> events) {
+    sortedEvents = events.toArray(new Event[0]);
+    Arrays.sort(sortedEvents, FindMeetingQuery.ORDER_BY_START_THEN_LONGEST);
+
+    Map<String, List<Integer>> positions = new HashMap<>();
+    for (int i = 0; i < sortedEvents.length; i++) {
+      for (String attendee : sortedEvents[i].getAttendees()) {
+        positions.computeIfAbsent(attendee, key -> new ArrayList<>()).add(i);
+      }
+    }
+    for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+      int[] attendeePositions = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+      eventsByAttendee.put(entry.getKey(), new AttendeeEvents(sortedEvents, attendeePositions));
+    }
+  }
+
+  /** Returns the events {@code attendee} attends, sorted by start time. */
+  public List<Event> getEvents(String attendee) {
+    return getEventsOfAny(Collections.singleton(attendee));
+  }
+
+  /**
+   * Returns the events that at least one of {@code attendees} attends, sorted by start time and
+   * listed once each.
+   */
+  public List<Event> getEventsOfAny(Collection<String> attendees) {
+    return getEventsOfAny(attendees, null);
+  }
+
+  /**
+   * Returns the events that at least one of {@code attendees} attends and that fall within {@code
+   * horizon}, as defined by {@link FindMeetingQuery}, sorted by start time and listed once each. A
+   * null horizon matches every event.
+   */
+  public List<Event> getEventsOfAny(Collection<String> attendees, TimeRange horizon) {
+    int capacity = 0;
+    for (String attendee : attendees) {
+      AttendeeEvents attendeeEvents = eventsByAttendee.get(attendee);
+      if (attendeeEvents != null) {
+        capacity += attendeeEvents.positions.length;
+      }
+    }
+
+    int[] positions = new int[capacity];
+    int count = 0;
+    for (String attendee : attendees) {
+      AttendeeEvents attendeeEvents = eventsByAttendee.get(attendee);
+      if (attendeeEvents != null) {
+        count = attendeeEvents.collect(horizon, positions, count);
+      }
+    }
+    Arrays.sort(positions, 0, count);
+
+    // An event shared by several of the attendees shows up once per attendee; keep one.
+    List<Event> events = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      if (i == 0 || positions[i] != positions[i - 1]) {
+        events.add(sortedEvents[positions[i]]);
+      }
+    }
+    return events;
+  }
+
+  /**
+   * One attendee's events in sort order, stored as an implicit balanced binary search tree: the
+   * root of any slice {@code [low, high)} is its middle element. Each node is augmented with the
+   * largest end time in its subtree, which lets a horizon lookup skip subtrees that end too early.
+   */
+  private static final class AttendeeEvents {
+    private final int[] positions;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+
+    AttendeeEvents(Event[] sortedEvents, int[] positions) {
+      this.positions = positions;
+      this.starts = new int[positions.length];
+      this.ends = new int[positions.length];
+      this.maxEnds = new int[positions.length];
+      for (int i = 0; i < positions.length; i++) {
+        TimeRange when = sortedEvents[positions[i]].getWhen();
+        starts[i] = when.start();
+        ends[i] = when.end();
+      }
+      computeMaxEnds(0, positions.length);
+    }
+
+    /**
+     * Appends the positions of the events within {@code horizon}, or of all events if it is null,
+     * to {@code out} from {@code count} on, and returns the new count.
+     */
+    int collect(TimeRange horizon, int[] out, int count) {
+      if (horizon == null) {
+        System.arraycopy(positions, 0, out, count, positions.length);
+        return count + positions.length;
+      }
+      return collect(0, positions.length, horizon, out, count);
+    }
+
+    private int collect(int low, int high, TimeRange horizon, int[] out, int count) {
+      if (low >= high) {
+        return count;
+      }
+      int mid = (low + high) >>> 1;
+      // Nothing in this subtree reaches the horizon. Empty events at its start still count, so
+      // the comparison is strict.
+      if (maxEnds[mid] < horizon.start()) {
+        return count;
+      }
+
+      count = collect(low, mid, horizon, out, count);
+      // This event and everything to its right start too late.
+      if (starts[mid] >= horizon.end()) {
+        return count;
+      }
+      if (FindMeetingQuery.isWithin(
+          TimeRange.fromStartEnd(starts[mid], ends[mid], /* inclusive = */ false), horizon)) {
+        out[count++] = positions[mid];
+      }
+      return collect(mid + 1, high, horizon, out, count);
+    }
+
+    private int computeMaxEnds(int low, int high) {
+      if (low >= high) {
+        return Integer.MIN_VALUE;
+      }
+      int mid = (low + high) >>> 1;
+      maxEnds[mid] =
+          Math.max(ends[mid], Math.max(computeMaxEnds(low, mid), computeMaxEnds(mid + 1, high)));
+      return maxEnds[mid];
+    }
+  }
+}
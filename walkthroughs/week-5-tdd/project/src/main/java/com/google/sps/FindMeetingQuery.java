@@ -18,176 +18,281 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 public final class FindMeetingQuery {
-  public Collection<TimeRange> query(Collection<Event> events, MeetingRequest request) {
-    Collection<String> mandatoryAttendees = request.getAttendees();
-    Collection<String> optionalAttendees = request.getOptionalAttendees();
-    long meetingDurationMinutes = request.getDuration();
+  /**
+   * Orders events by start time and, for equal starts, longest first. Sweeping in this order means
+   * an event can only ever overlap the most recent busy range.
+   */
+  static final Comparator<Event> ORDER_BY_START_THEN_LONGEST =
+      (a, b) -> {
+        int byStart = Integer.compare(a.getWhen().start(), b.getWhen().start());
+        return byStart != 0
+            ? byStart
+            : Integer.compare(b.getWhen().duration(), a.getWhen().duration());
+      };
+
+  // Calendar snapshot for queryAll, or null if this query was created without one.
+  private final EventIndex eventIndex;
+
+  public FindMeetingQuery() {
+    this(null);
+  }
 
-    Set<String> bothAttendees = new HashSet<String>();
-    bothAttendees.addAll(mandatoryAttendees);
-    bothAttendees.addAll(optionalAttendees);
+  /** Creates a query that answers {@link #queryAll} against {@code eventIndex}. */
+  public FindMeetingQuery(EventIndex eventIndex) {
+    this.eventIndex = eventIndex;
+  }
 
-    // If the meeting duration is over 24 hours, then return no available timeRange.
-    if (meetingDurationMinutes > TimeRange.WHOLE_DAY.duration()) {
-      return Collections.emptyList();
-    }
+  public Collection<TimeRange> query(Collection<Event> events, MeetingRequest request) {
+    return query(events, request, TimeRange.WHOLE_DAY);
+  }
 
-    // If no Attendees are passed in, return a timeRange containing the whole day.
-    if (request.getAttendees().isEmpty() && request.getOptionalAttendees().isEmpty()) {
-      return Arrays.asList(TimeRange.WHOLE_DAY);
+  /**
+   * Returns the free ranges within {@code horizon}, which may span any number of days, e.g. as
+   * epoch minutes from {@link TimeRange#fromEpochMillis}. Events outside the horizon are ignored
+   * and events that cross its edges are cut at them.
+   */
+  public Collection<TimeRange> query(
+      Collection<Event> events, MeetingRequest request, TimeRange horizon) {
+    Collection<TimeRange> trivialAnswer = getTrivialAnswer(request, horizon);
+    if (trivialAnswer != null) {
+      return trivialAnswer;
     }
 
-    // Store unavailable TimeRanges for mandatory and mandatory + optional attendees separately.
-    List<TimeRange> unavailableMandatoryTimeRanges =
-        getUnavailableTimeRanges(events, mandatoryAttendees);
-    List<TimeRange> unavailableOptionalTimeRanges = getUnavailableTimeRanges(events, bothAttendees);
+    // Only events that someone in the request attends matter; sort those once for the sweep.
+    Set<String> mandatoryAttendees = new HashSet<>(request.getAttendees());
+    Set<String> bothAttendees = getBothAttendees(request);
 
-    // Get available TimeRanges from unavailable TimeRanges.
-    List<TimeRange> availableMandatoryTimeRanges =
-        getAvailableTimeRanges(unavailableMandatoryTimeRanges, meetingDurationMinutes);
-    List<TimeRange> availableOptionalTimeRanges =
-        getAvailableTimeRanges(unavailableOptionalTimeRanges, meetingDurationMinutes);
-
-    // If the List of available TimeRanges when including optional attendees is empty,
-    // and mandatory attendees were passed in, then return availableMandatoryTimeRanges.
-    // Else return availableOptionalTimeRanges.
-    if (availableOptionalTimeRanges.isEmpty() && !mandatoryAttendees.isEmpty()) {
-      return availableMandatoryTimeRanges;
-    } else {
-      return availableOptionalTimeRanges;
+    List<Event> relevantEvents = new ArrayList<>();
+    for (Event event : events) {
+      if (isWithin(event.getWhen(), horizon) && attendsAny(event, bothAttendees)) {
+        relevantEvents.add(event);
+      }
     }
+    relevantEvents.sort(ORDER_BY_START_THEN_LONGEST);
+
+    return findAvailableTimeRanges(
+        relevantEvents, mandatoryAttendees, request.getDuration(), horizon);
   }
 
-  /** Returns a List of TimeRanges that are unavailable in as little TimeRanges as possible. */
-  private List<TimeRange> getUnavailableTimeRanges(
-      Collection<Event> events, Collection<String> attendees) {
-    List<TimeRange> unavailableTimeRanges = new ArrayList<>();
+  /**
+   * Same as {@link #query(Collection, MeetingRequest)}, but only reads the events of the requested
+   * attendees from a prebuilt index.
+   */
+  public Collection<TimeRange> query(EventIndex index, MeetingRequest request) {
+    return query(index, request, TimeRange.WHOLE_DAY);
+  }
 
-    // Convert the Collection of attendeese into a hash set in order to make each check
-    // for a certain attendee O(1).
-    Set<String> attendeeSet = new HashSet<String>();
-    attendeeSet.addAll(attendees);
+  /**
+   * Same as {@link #query(Collection, MeetingRequest, TimeRange)}, but only reads the events of the
+   * requested attendees within the horizon from a prebuilt index.
+   */
+  public Collection<TimeRange> query(EventIndex index, MeetingRequest request, TimeRange horizon) {
+    Collection<TimeRange> trivialAnswer = getTrivialAnswer(request, horizon);
+    if (trivialAnswer != null) {
+      return trivialAnswer;
+    }
 
-    // If an event's attendee list contains a names of an attendee that needs to attend
-    // (from Collection<String> attendees, then we add the event's TimeRange to a list.
-    events.forEach(
-        event -> {
-          Collection<String> eventAttendees = event.getAttendees();
+    Set<String> mandatoryAttendees = new HashSet<>(request.getAttendees());
+    return findAvailableTimeRanges(
+        index.getEventsOfAny(getBothAttendees(request), horizon),
+        mandatoryAttendees,
+        request.getDuration(),
+        horizon);
+  }
 
-          for (String attendee : eventAttendees) {
-            if (!attendeeSet.contains(attendee)) {
-              continue;
-            }
+  /**
+   * Answers every request against the index this query was created with. The requests are evaluated
+   * in parallel on the common {@link ForkJoinPool}, and the answers are returned in request order.
+   *
+   * @throws IllegalStateException if this query was created without an index
+   */
+  public List<Collection<TimeRange>> queryAll(Collection<MeetingRequest> requests) {
+    return queryAll(requests, TimeRange.WHOLE_DAY);
+  }
 
-            TimeRange currentEventTimeRange = event.getWhen();
+  /** Same as {@link #queryAll(Collection)}, but answers every request within {@code horizon}. */
+  public List<Collection<TimeRange>> queryAll(
+      Collection<MeetingRequest> requests, TimeRange horizon) {
+    List<Collection<TimeRange>> answers = new ArrayList<>(requests.size());
+    queryAll(requests, horizon, answers::add);
+    return answers;
+  }
 
-            mergeOnOverlap(unavailableTimeRanges, currentEventTimeRange);
+  /**
+   * Same as {@link #queryAll(Collection)}, but passes each answer to {@code consumer}, in request
+   * order, as soon as it and every answer before it are ready. If the consumer throws, the
+   * remaining requests are cancelled and the exception is rethrown.
+   */
+  public void queryAll(
+      Collection<MeetingRequest> requests, Consumer<? super Collection<TimeRange>> consumer) {
+    queryAll(requests, TimeRange.WHOLE_DAY, consumer);
+  }
 
-            break;
-          }
-        });
+  /**
+   * Same as {@link #queryAll(Collection, Consumer)}, but answers every request within {@code
+   * horizon}.
+   */
+  public void queryAll(
+      Collection<MeetingRequest> requests,
+      TimeRange horizon,
+      Consumer<? super Collection<TimeRange>> consumer) {
+    if (eventIndex == null) {
+      throw new IllegalStateException("queryAll needs a FindMeetingQuery created with an index");
+    }
 
-    return unavailableTimeRanges;
+    List<ForkJoinTask<Collection<TimeRange>>> tasks = new ArrayList<>(requests.size());
+    for (MeetingRequest request : requests) {
+      tasks.add(ForkJoinPool.commonPool().submit(() -> query(eventIndex, request, horizon)));
+    }
+
+    int next = 0;
+    try {
+      for (; next < tasks.size(); next++) {
+        consumer.accept(tasks.get(next).join());
+      }
+    } finally {
+      for (; next < tasks.size(); next++) {
+        tasks.get(next).cancel(false);
+      }
+    }
   }
 
   /**
-   * Returns whether a merge has ocurred or not and modifies the Collection of TimeRanges to include
-   * a merged TimeRange where the newTimeRange overlaps with the passed Collection.
+   * Returns whether an event at {@code when} can affect free time within {@code horizon}: it
+   * overlaps the horizon, or it is empty and lies inside it.
    */
-  private void mergeOnOverlap(Collection<TimeRange> timeRanges, TimeRange newTimeRange) {
-    // Store items that we will remove from the collection after we finish iterating
-    // through it in order to avoid ConcurrentModificationException from being thrown.
-    List<TimeRange> toRemove = new ArrayList<>();
-
-    // Iterate through each TimeRange in timeRanges and if any overlap with the
-    // the newTimeRange, then merge them together, store the merged TimeRange as the
-    // newTimeRange, and remove the timeRange from timeRanges that was merged.
-    for (TimeRange takenTimeRange : timeRanges) {
-      if (newTimeRange.overlaps(takenTimeRange)) {
-        newTimeRange = mergeTimeRanges(newTimeRange, takenTimeRange);
-        toRemove.add(takenTimeRange);
-      }
+  static boolean isWithin(TimeRange when, TimeRange horizon) {
+    if (when.start() >= horizon.end()) {
+      return false;
     }
+    return when.end() > horizon.start() || (when.duration() == 0 && horizon.contains(when.start()));
+  }
 
-    for (TimeRange timeRange : toRemove) {
-      timeRanges.remove(timeRange);
+  /** Returns the answer for requests that need no events at all, or null for the rest. */
+  private Collection<TimeRange> getTrivialAnswer(MeetingRequest request, TimeRange horizon) {
+    // If the meeting is longer than the horizon, then return no available timeRange.
+    if (request.getDuration() > horizon.duration()) {
+      return Collections.emptyList();
     }
 
-    // Add the newTimeRange either as the original value that was passed in, or merged with
-    // overlapping ranges.
-    timeRanges.add(newTimeRange);
+    // If no Attendees are passed in, return a timeRange containing the whole horizon.
+    if (request.getAttendees().isEmpty() && request.getOptionalAttendees().isEmpty()) {
+      return Arrays.asList(horizon);
+    }
+    return null;
   }
 
-  private TimeRange mergeTimeRanges(TimeRange firstTimeRange, TimeRange secondTimeRange) {
-    TimeRange mergedTimeRange =
-        TimeRange.fromStartEnd(
-            Math.min(firstTimeRange.start(), secondTimeRange.start()),
-            Math.max(firstTimeRange.end(), secondTimeRange.end()),
-            /* inclusive = */ false);
-
-    return mergedTimeRange;
+  private Set<String> getBothAttendees(MeetingRequest request) {
+    Set<String> bothAttendees = new HashSet<>(request.getAttendees());
+    bothAttendees.addAll(request.getOptionalAttendees());
+    return bothAttendees;
   }
 
   /**
-   * Returns available timeRanges as a List by sorting a copy of unavailableTimeRanges by start time
-   * and adding each gap between each timeRange to the List which will be returned. The List that
-   * was passed in will not be modified.
+   * Sweeps events sorted by {@code ORDER_BY_START_THEN_LONGEST} once, building the busy ranges of
+   * the mandatory attendees and of all attendees side by side, and returns the free ranges of at
+   * least {@code durationMinutes} within {@code horizon}. Every event must be attended by someone
+   * in the request.
    */
-  private List<TimeRange> getAvailableTimeRanges(
-      List<TimeRange> unavailableTimeRanges, long durationMinutes) {
-    if (unavailableTimeRanges.isEmpty()) {
-      return Arrays.asList(TimeRange.WHOLE_DAY);
+  private Collection<TimeRange> findAvailableTimeRanges(
+      Iterable<Event> sortedEvents,
+      Set<String> mandatoryAttendees,
+      long durationMinutes,
+      TimeRange horizon) {
+    BusyTimeRanges mandatoryBusy = new BusyTimeRanges();
+    BusyTimeRanges bothBusy = new BusyTimeRanges();
+
+    for (Event event : sortedEvents) {
+      TimeRange when = event.getWhen();
+      bothBusy.add(when);
+      if (attendsAny(event, mandatoryAttendees)) {
+        mandatoryBusy.add(when);
+      }
     }
 
-    List<TimeRange> unavailableTimeRangesCopy = new ArrayList<>(unavailableTimeRanges);
-    Collections.sort(unavailableTimeRangesCopy, TimeRange.ORDER_BY_START);
-
-    List<TimeRange> availableTimeRanges = new ArrayList<>();
-    int lastListIndex = unavailableTimeRangesCopy.size() - 1;
+    List<TimeRange> availableOptionalTimeRanges =
+        bothBusy.getAvailableTimeRanges(horizon, durationMinutes);
 
-    // Check for available time starting at the beginning of the day.
-    if (unavailableTimeRangesCopy.get(0).start() >= durationMinutes) {
-      availableTimeRanges.add(
-          TimeRange.fromStartEnd(
-              TimeRange.WHOLE_DAY.start(),
-              unavailableTimeRangesCopy.get(0).start(),
-              /* inclusive = */ false));
+    // If the List of available TimeRanges when including optional attendees is empty,
+    // and mandatory attendees were passed in, then return the mandatory attendees' TimeRanges.
+    // Else return availableOptionalTimeRanges.
+    if (availableOptionalTimeRanges.isEmpty() && !mandatoryAttendees.isEmpty()) {
+      return mandatoryBusy.getAvailableTimeRanges(horizon, durationMinutes);
+    } else {
+      return availableOptionalTimeRanges;
     }
+  }
 
-    for (int i = 0; i < lastListIndex; i++) {
-      if (enoughTimeBetween(
-          unavailableTimeRangesCopy.get(i),
-          unavailableTimeRangesCopy.get(i + 1),
-          durationMinutes)) {
-        availableTimeRanges.add(
-            TimeRange.fromStartEnd(
-                unavailableTimeRangesCopy.get(i).end(),
-                unavailableTimeRangesCopy.get(i + 1).start(),
-                /* inclusive = */ false));
+  private static boolean attendsAny(Event event, Set<String> attendees) {
+    for (String attendee : event.getAttendees()) {
+      if (attendees.contains(attendee)) {
+        return true;
       }
     }
+    return false;
+  }
 
-    // Check for available time at the end of the day.
-    int timeAfterLastMeeting =
-        TimeRange.WHOLE_DAY.end() - unavailableTimeRangesCopy.get(lastListIndex).end();
-
-    if (timeAfterLastMeeting >= durationMinutes) {
-      availableTimeRanges.add(
-          TimeRange.fromStartEnd(
-              unavailableTimeRangesCopy.get(lastListIndex).end(),
-              TimeRange.WHOLE_DAY.end(),
-              /* inclusive = */ false));
+  /**
+   * Busy time built from ranges added in {@code ORDER_BY_START_THEN_LONGEST} order, as a list of
+   * disjoint ranges in start order. Ranges are merged when they overlap in the sense of {@link
+   * TimeRange#overlaps}, so ranges that only touch, and empty ranges outside every other range,
+   * stay separate.
+   */
+  private static final class BusyTimeRanges {
+    private final List<TimeRange> timeRanges = new ArrayList<>();
+
+    void add(TimeRange timeRange) {
+      int lastIndex = timeRanges.size() - 1;
+      if (lastIndex >= 0) {
+        TimeRange last = timeRanges.get(lastIndex);
+        // Sorted input means only the last range can overlap, and it starts no later.
+        if (last.overlaps(timeRange)) {
+          if (timeRange.end() > last.end()) {
+            timeRanges.set(
+                lastIndex,
+                TimeRange.fromStartEnd(last.start(), timeRange.end(), /* inclusive = */ false));
+          }
+          return;
+        }
+      }
+      timeRanges.add(timeRange);
     }
 
-    return availableTimeRanges;
-  }
+    /**
+     * Returns the gaps of at least {@code durationMinutes} before, between and after the busy
+     * ranges, or the whole horizon if nothing is busy. Every busy range must lie within the horizon
+     * in the sense of {@link #isWithin}, so only the first and last can cross its edges.
+     */
+    List<TimeRange> getAvailableTimeRanges(TimeRange horizon, long durationMinutes) {
+      if (timeRanges.isEmpty()) {
+        return Arrays.asList(horizon);
+      }
 
-  private boolean enoughTimeBetween(TimeRange firstTime, TimeRange nextTime, long durationMinutes) {
-    return (nextTime.start() - firstTime.end()) >= durationMinutes;
+      List<TimeRange> availableTimeRanges = new ArrayList<>();
+      int previousEnd = horizon.start();
+      for (TimeRange busy : timeRanges) {
+        if (busy.start() - previousEnd >= durationMinutes) {
+          availableTimeRanges.add(
+              TimeRange.fromStartEnd(previousEnd, busy.start(), /* inclusive = */ false));
+        }
+        previousEnd = busy.end();
+      }
+
+      // Check for available time at the end of the horizon.
+      if (horizon.end() - previousEnd >= durationMinutes) {
+        availableTimeRanges.add(
+            TimeRange.fromStartEnd(previousEnd, horizon.end(), /* inclusive = */ false));
+      }
+      return availableTimeRanges;
+    }
   }
 }
@@ -26,6 +26,8 @@ public final class TimeRange {
 
   public static final TimeRange WHOLE_DAY = new TimeRange(0, 24 * 60);
 
+  private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
   /**
    * A comparator for sorting ranges by their start time in ascending order.
    */
@@ -183,4 +185,17 @@ public final class TimeRange {
   public static TimeRange fromStartDuration(int start, int duration) {
     return new TimeRange(start, duration);
   }
+
+  /**
+   * Creates a {@code TimeRange} in minutes since the epoch from {@code startMillis} to {@code
+   * endMillis} (exclusive), widened to whole minutes. Use it to build multi-day horizons, and
+   * events on the same scale, for {@link FindMeetingQuery}.
+   *
+   * @throws ArithmeticException if either bound does not fit in an int of minutes
+   */
+  public static TimeRange fromEpochMillis(long startMillis, long endMillis) {
+    int start = Math.toIntExact(Math.floorDiv(startMillis, MILLIS_PER_MINUTE));
+    int end = Math.toIntExact(Math.floorDiv(endMillis + MILLIS_PER_MINUTE - 1, MILLIS_PER_MINUTE));
+    return fromStartEnd(start, end, /* inclusive = */ false);
+  }
 }
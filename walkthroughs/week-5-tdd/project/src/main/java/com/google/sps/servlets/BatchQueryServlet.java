@@ -0,0 +1,126 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.EventIndex;
+import com.google.sps.Events;
+import com.google.sps.FindMeetingQuery;
+import com.google.sps.MeetingRequest;
+import com.google.sps.TimeRange;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Answers a JSON array of meeting requests with a JSON array of answers in the same order. Each
+ * answer is written as soon as it and every answer before it are ready.
+ *
+ * <p>Every request in the batch is answered within the horizon given by the {@code start} and
+ * {@code end} parameters, in minutes on the same scale as the events, or within the whole day if
+ * both are left out.
+ */
+@WebServlet("/query/batch")
+public class BatchQueryServlet extends HttpServlet {
+  // Shared by every batch; the index is read-only once built.
+  private FindMeetingQuery findMeetingQuery;
+
+  @Override
+  public void init() {
+    findMeetingQuery = new FindMeetingQuery(new EventIndex(Arrays.asList(Events.events)));
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Gson gson = new Gson();
+
+    TimeRange horizon = getHorizon(request);
+    if (horizon == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid start or end");
+      return;
+    }
+
+    // Convert the JSON to a list of MeetingRequests.
+    List<MeetingRequest> meetingRequests;
+    try {
+      meetingRequests =
+          gson.fromJson(request.getReader(), new TypeToken<List<MeetingRequest>>() {}.getType());
+    } catch (JsonSyntaxException e) {
+      meetingRequests = null;
+    }
+    if (meetingRequests == null || meetingRequests.contains(null)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected a JSON array of requests");
+      return;
+    }
+
+    response.setContentType("application/json");
+    JsonWriter writer = gson.newJsonWriter(response.getWriter());
+    writer.beginArray();
+    try {
+      findMeetingQuery.queryAll(
+          meetingRequests,
+          horizon,
+          answer -> {
+            gson.toJson(answer, answer.getClass(), writer);
+            try {
+              writer.flush();
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      // The client went away; the remaining requests were cancelled.
+      throw e.getCause();
+    }
+    writer.endArray();
+    writer.flush();
+  }
+
+  /**
+   * Returns the horizon named by the {@code start} and {@code end} parameters, the whole day if
+   * neither is set, or null if they do not form a valid range.
+   */
+  private static TimeRange getHorizon(HttpServletRequest request) {
+    String start = request.getParameter("start");
+    String end = request.getParameter("end");
+    if (start == null && end == null) {
+      return TimeRange.WHOLE_DAY;
+    }
+    if (start == null || end == null) {
+      return null;
+    }
+
+    int startMinutes;
+    int endMinutes;
+    try {
+      startMinutes = Integer.parseInt(start);
+      endMinutes = Integer.parseInt(end);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (endMinutes < startMinutes || (long) endMinutes - startMinutes > Integer.MAX_VALUE) {
+      return null;
+    }
+    return TimeRange.fromStartEnd(startMinutes, endMinutes, /* inclusive = */ false);
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.google.sps.servlets;
 
+import com.google.sps.EventIndex;
 import com.google.sps.Events;
 import com.google.sps.FindMeetingQuery;
 import com.google.sps.MeetingRequest;
@@ -29,6 +30,14 @@ import javax.servlet.http.HttpServletResponse;
 
 @WebServlet("/query")
 public class QueryServlet extends HttpServlet {
+  // Events.events never changes, so it is indexed once and shared by every request.
+  private EventIndex eventIndex;
+
+  @Override
+  public void init() {
+    eventIndex = new EventIndex(Arrays.asList(Events.events));
+  }
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     Gson gson = new Gson();
@@ -38,8 +47,7 @@ public class QueryServlet extends HttpServlet {
 
     // Find the possible meeting times.
     FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
-    Collection<TimeRange> answer =
-        findMeetingQuery.query(Arrays.asList(Events.events), meetingRequest);
+    Collection<TimeRange> answer = findMeetingQuery.query(eventIndex, meetingRequest);
 
     // Convert the times to JSON
     String jsonResponse = gson.toJson(answer);
@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class BitsetFindMeetingQueryTest {
+  // Some people that we can use in our tests.
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
+  private static final String PERSON_D = "Person D";
+  private static final String PERSON_E = "Person E";
+
+  private static final List<String> PEOPLE =
+      Arrays.asList(PERSON_A, PERSON_B, PERSON_C, PERSON_D, PERSON_E);
+
+  private static final int DURATION_30_MINUTES = 30;
+
+  @Test
+  public void eventsAcrossWordBoundaries() {
+    // Minutes 63-64 and 127-192 straddle the 64-bit words of the bitset.
+    Collection<Event> events =
+        Arrays.asList(
+            new Event("Event 1", TimeRange.fromStartEnd(63, 65, false), Arrays.asList(PERSON_A)),
+            new Event("Event 2", TimeRange.fromStartEnd(127, 193, false), Arrays.asList(PERSON_B)));
+    MeetingRequest request =
+        new MeetingRequest(Arrays.asList(PERSON_A, PERSON_B), DURATION_30_MINUTES);
+
+    Collection<TimeRange> actual = new BitsetFindMeetingQuery(events).query(request);
+    Collection<TimeRange> expected =
+        Arrays.asList(
+            TimeRange.fromStartEnd(0, 63, false),
+            TimeRange.fromStartEnd(65, 127, false),
+            TimeRange.fromStartEnd(193, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void matchesIntervalEngineOnRandomCalendars() {
+    Random random = new Random(2020);
+    FindMeetingQuery intervalQuery = new FindMeetingQuery();
+
+    for (int calendar = 0; calendar < 500; calendar++) {
+      List<Event> events = randomEvents(random, random.nextInt(20));
+      BitsetFindMeetingQuery bitsetQuery = new BitsetFindMeetingQuery(events);
+
+      for (int i = 0; i < 20; i++) {
+        MeetingRequest request = randomRequest(random);
+        Assert.assertEquals(
+            "Events " + events.size() + " in calendar " + calendar,
+            new ArrayList<>(intervalQuery.query(events, request)),
+            new ArrayList<>(bitsetQuery.query(request)));
+      }
+    }
+  }
+
+  private static List<Event> randomEvents(Random random, int count) {
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      int start = random.nextInt(TimeRange.WHOLE_DAY.end() + 1);
+      // A few empty events, which the bitset engine leaves to the interval engine, and about half
+      // on a coarse grid to get ties and touching events.
+      int duration =
+          random.nextInt(40) == 0 ? 0 : random.nextInt(TimeRange.WHOLE_DAY.end() - start + 1);
+      if (random.nextBoolean()) {
+        start = start / 60 * 60;
+        duration = Math.min(duration / 30 * 30, TimeRange.WHOLE_DAY.end() - start);
+      }
+      // Some events cross, or lie past, the edges of the day.
+      if (random.nextInt(10) == 0) {
+        start += random.nextInt(401) - 200;
+      }
+      events.add(
+          new Event(
+              "Event " + i, TimeRange.fromStartDuration(start, duration), randomPeople(random)));
+    }
+    return events;
+  }
+
+  private static MeetingRequest randomRequest(Random random) {
+    int duration = random.nextInt(20) == 0 ? 0 : 1 + random.nextInt(240);
+    MeetingRequest request = new MeetingRequest(randomPeople(random), duration);
+    for (String person : randomPeople(random)) {
+      request.addOptionalAttendee(person);
+    }
+    return request;
+  }
+
+  private static List<String> randomPeople(Random random) {
+    List<String> people = new ArrayList<>();
+    for (String person : PEOPLE) {
+      if (random.nextInt(3) == 0) {
+        people.add(person);
+      }
+    }
+    return people;
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class EventIndexTest {
+  // Some people that we can use in our tests.
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+
+  private static final int DURATION_30_MINUTES = 30;
+  private static final int DURATION_60_MINUTES = 60;
+
+  private static final Event EVENT_A_AT_10 =
+      new Event(
+          "Event 1",
+          TimeRange.fromStartDuration(TIME_1000AM, DURATION_30_MINUTES),
+          Arrays.asList(PERSON_A));
+  private static final Event EVENT_AB_AT_8 =
+      new Event(
+          "Event 2",
+          TimeRange.fromStartDuration(TIME_0800AM, DURATION_60_MINUTES),
+          Arrays.asList(PERSON_A, PERSON_B));
+  private static final Event EVENT_B_AT_9 =
+      new Event(
+          "Event 3",
+          TimeRange.fromStartDuration(TIME_0900AM, DURATION_30_MINUTES),
+          Arrays.asList(PERSON_B));
+
+  private EventIndex index;
+
+  @Before
+  public void setUp() {
+    index = new EventIndex(Arrays.asList(EVENT_A_AT_10, EVENT_AB_AT_8, EVENT_B_AT_9));
+  }
+
+  @Test
+  public void eventsAreSortedByStart() {
+    List<Event> actual = index.getEvents(PERSON_A);
+    List<Event> expected = Arrays.asList(EVENT_AB_AT_8, EVENT_A_AT_10);
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void unknownAttendeeHasNoEvents() {
+    List<Event> actual = index.getEvents(PERSON_C);
+
+    Assert.assertEquals(Collections.emptyList(), actual);
+  }
+
+  @Test
+  public void sharedEventsAreListedOnce() {
+    List<Event> actual = index.getEventsOfAny(Arrays.asList(PERSON_A, PERSON_B, PERSON_C));
+    List<Event> expected = Arrays.asList(EVENT_AB_AT_8, EVENT_B_AT_9, EVENT_A_AT_10);
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void queryWithIndexMatchesQueryWithEvents() {
+    Collection<Event> events = Arrays.asList(Events.events);
+    EventIndex eventsIndex = new EventIndex(events);
+    FindMeetingQuery query = new FindMeetingQuery();
+
+    MeetingRequest request =
+        new MeetingRequest(Arrays.asList("Amelia", "Liam"), DURATION_30_MINUTES);
+    request.addOptionalAttendee("Noah");
+
+    Assert.assertEquals(query.query(events, request), query.query(eventsIndex, request));
+  }
+
+  @Test
+  public void horizonKeepsOnlyEventsWithinIt() {
+    TimeRange horizon = TimeRange.fromStartEnd(TIME_0900AM, TIME_1000AM, false);
+
+    List<Event> actual = index.getEventsOfAny(Arrays.asList(PERSON_A, PERSON_B), horizon);
+    List<Event> expected = Arrays.asList(EVENT_B_AT_9);
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void horizonLookupMatchesScanOnRandomCalendars() {
+    Random random = new Random(2020);
+    List<String> people = Arrays.asList(PERSON_A, PERSON_B, PERSON_C);
+    int week = 7 * TimeRange.WHOLE_DAY.duration();
+
+    for (int calendar = 0; calendar < 200; calendar++) {
+      List<Event> events = new ArrayList<>();
+      int eventCount = random.nextInt(100);
+      for (int i = 0; i < eventCount; i++) {
+        int start = random.nextInt(week);
+        int duration = random.nextInt(10) == 0 ? 0 : random.nextInt(24 * 60);
+        List<String> attendees = people.subList(random.nextInt(3), 3);
+        events.add(
+            new Event("Event " + i, TimeRange.fromStartDuration(start, duration), attendees));
+      }
+      EventIndex calendarIndex = new EventIndex(events);
+
+      for (int i = 0; i < 20; i++) {
+        int start = random.nextInt(week);
+        TimeRange horizon = TimeRange.fromStartDuration(start, random.nextInt(week - start + 1));
+        List<String> attendees = people.subList(random.nextInt(3), 3);
+
+        List<Event> expected = new ArrayList<>();
+        for (Event event : calendarIndex.getEventsOfAny(attendees)) {
+          if (FindMeetingQuery.isWithin(event.getWhen(), horizon)) {
+            expected.add(event);
+          }
+        }
+        Assert.assertEquals(expected, calendarIndex.getEventsOfAny(attendees, horizon));
+      }
+    }
+  }
+}
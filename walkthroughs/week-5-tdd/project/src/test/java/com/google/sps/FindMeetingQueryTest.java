@@ -14,9 +14,11 @@
 
 package com.google.sps;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -467,4 +469,133 @@ public final class FindMeetingQueryTest {
 
     Assert.assertEquals(expected, actual);
   }
+
+  @Test
+  public void unsortedChainOfOverlappingEvents() {
+    // Events arrive out of order, and the last one only overlaps the others through the middle
+    // one. They should still merge into a single busy range.
+    //
+    // Events  :       |--A--|
+    //                     |--B--|
+    //                         |--C--|
+    // Day     : |---------------------------|
+    // Options : |--1--|             |---2---|
+
+    Collection<Event> events =
+        Arrays.asList(
+            new Event(
+                "Event 1",
+                TimeRange.fromStartDuration(TIME_0930AM, DURATION_60_MINUTES),
+                Arrays.asList(PERSON_C)),
+            new Event(
+                "Event 2",
+                TimeRange.fromStartDuration(TIME_0800AM, DURATION_60_MINUTES),
+                Arrays.asList(PERSON_A)),
+            new Event(
+                "Event 3",
+                TimeRange.fromStartDuration(TIME_0830AM, DURATION_90_MINUTES),
+                Arrays.asList(PERSON_B)));
+
+    MeetingRequest request =
+        new MeetingRequest(Arrays.asList(PERSON_A, PERSON_B, PERSON_C), DURATION_30_MINUTES);
+
+    Collection<TimeRange> actual = query.query(events, request);
+    Collection<TimeRange> expected =
+        Arrays.asList(
+            TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+            TimeRange.fromStartEnd(TIME_0930AM + DURATION_60_MINUTES, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void multiDayHorizon() {
+    // The horizon spans the second and third days. Events on the first day are ignored, and events
+    // that cross the edges of the horizon only block the part inside it.
+    //
+    // Events  : |--A--|      |--B--|         |--A--|
+    // Horizon :    |---------------------|
+    // Options :       |--1--|      |--2--|
+
+    int day = TimeRange.WHOLE_DAY.duration();
+    TimeRange horizon = TimeRange.fromStartEnd(day, 3 * day, false);
+    Collection<Event> events =
+        Arrays.asList(
+            new Event(
+                "Event 1",
+                TimeRange.fromStartDuration(TIME_0800AM, DURATION_60_MINUTES),
+                Arrays.asList(PERSON_A)),
+            new Event(
+                "Event 2",
+                TimeRange.fromStartEnd(day - DURATION_60_MINUTES, day + TIME_0800AM, false),
+                Arrays.asList(PERSON_A)),
+            new Event(
+                "Event 3",
+                TimeRange.fromStartDuration(2 * day + TIME_0900AM, DURATION_60_MINUTES),
+                Arrays.asList(PERSON_B)),
+            new Event(
+                "Event 4",
+                TimeRange.fromStartEnd(3 * day - DURATION_60_MINUTES, 3 * day + TIME_0800AM, false),
+                Arrays.asList(PERSON_A)));
+
+    MeetingRequest request =
+        new MeetingRequest(Arrays.asList(PERSON_A, PERSON_B), DURATION_30_MINUTES);
+
+    Collection<TimeRange> actual = query.query(events, request, horizon);
+    Collection<TimeRange> expected =
+        Arrays.asList(
+            TimeRange.fromStartEnd(day + TIME_0800AM, 2 * day + TIME_0900AM, false),
+            TimeRange.fromStartEnd(
+                2 * day + TIME_0900AM + DURATION_60_MINUTES, 3 * day - DURATION_60_MINUTES, false));
+
+    Assert.assertEquals(expected, actual);
+    Assert.assertEquals(expected, query.query(new EventIndex(events), request, horizon));
+  }
+
+  @Test
+  public void queryAllAnswersInRequestOrder() {
+    Collection<Event> events = Arrays.asList(Events.events);
+    FindMeetingQuery batchQuery = new FindMeetingQuery(new EventIndex(events));
+
+    List<MeetingRequest> requests = new ArrayList<>();
+    String[] people = {"Amelia", "Liam", "Noah", "Olivia", "Emma"};
+    for (int i = 0; i < 200; i++) {
+      MeetingRequest request =
+          new MeetingRequest(
+              Arrays.asList(people[i % people.length]), DURATION_15_MINUTES * (1 + i % 8));
+      request.addOptionalAttendee(people[(i / people.length) % people.length]);
+      requests.add(request);
+    }
+
+    List<Collection<TimeRange>> actual = batchQuery.queryAll(requests);
+
+    Assert.assertEquals(requests.size(), actual.size());
+    for (int i = 0; i < requests.size(); i++) {
+      Assert.assertEquals(query.query(events, requests.get(i)), actual.get(i));
+    }
+  }
+
+  @Test
+  public void queryAllAnswersWithinHorizon() {
+    Collection<Event> events = Arrays.asList(Events.events);
+    FindMeetingQuery batchQuery = new FindMeetingQuery(new EventIndex(events));
+    TimeRange horizon = TimeRange.fromStartEnd(TIME_0800AM, TIME_0400PM, false);
+
+    List<MeetingRequest> requests =
+        Arrays.asList(
+            new MeetingRequest(Arrays.asList("Amelia"), DURATION_30_MINUTES),
+            new MeetingRequest(Arrays.asList("Liam", "Noah"), DURATION_1_HOUR));
+
+    List<Collection<TimeRange>> actual = batchQuery.queryAll(requests, horizon);
+
+    Assert.assertEquals(requests.size(), actual.size());
+    for (int i = 0; i < requests.size(); i++) {
+      Assert.assertEquals(query.query(events, requests.get(i), horizon), actual.get(i));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void queryAllNeedsAnIndex() {
+    query.queryAll(Arrays.asList(new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR)));
+  }
 }
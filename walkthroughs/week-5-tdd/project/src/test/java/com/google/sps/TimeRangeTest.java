@@ -184,4 +184,27 @@ public final class TimeRangeTest {
     Assert.assertTrue(emptyMiddle.overlaps(range));
     Assert.assertTrue(emptyEnd.overlaps(range));
   }
+
+  @Test
+  public void fromEpochMillisWidensToWholeMinutes() {
+    long minute = 60 * 1000;
+    long day = 24 * 60 * minute;
+
+    TimeRange range = TimeRange.fromEpochMillis(2 * day + 30 * 1000, 3 * day + 1);
+
+    Assert.assertEquals(2 * 24 * 60, range.start());
+    Assert.assertEquals(3 * 24 * 60 + 1, range.end());
+  }
+
+  @Test
+  public void fromEpochMillisFloorsNegativeStarts() {
+    TimeRange range = TimeRange.fromEpochMillis(-1, 0);
+
+    Assert.assertEquals(TimeRange.fromStartEnd(-1, 0, false), range);
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void fromEpochMillisRejectsRangesBeyondIntMinutes() {
+    TimeRange.fromEpochMillis(0, Long.MAX_VALUE);
+  }
 }